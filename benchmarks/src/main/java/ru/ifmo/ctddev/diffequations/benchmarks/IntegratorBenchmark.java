@@ -0,0 +1,100 @@
+package ru.ifmo.ctddev.diffequations.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.ifmo.ctddev.diffequations.DifferentialEquationSystem;
+import ru.ifmo.ctddev.diffequations.Function;
+import ru.ifmo.ctddev.diffequations.LastStateObserver;
+import ru.ifmo.ctddev.diffequations.LorenzSystem;
+import ru.ifmo.ctddev.diffequations.SolverStatistics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every integration method on the Lorenz system and on the harmonic oscillator of
+ * DifferentialEquationsTest.runSimpleTest. The primary score is solves per second, the
+ * auxiliary counters turn it into grid steps and right-hand side evaluations per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IntegratorBenchmark {
+    private static final double DT = 1e-3;
+
+    @Param
+    public DifferentialEquationSystem.Method method;
+
+    @Param({"lorenz", "oscillator"})
+    public String system;
+
+    @Param({"1000", "100000"})
+    public long steps;
+
+    private DifferentialEquationSystem equations;
+    private double[] x0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("lorenz".equals(system)) {
+            equations = new DifferentialEquationSystem(new LorenzSystem(10, 28, 8.0 / 3.0));
+            x0 = new double[]{1, 1, 1, 0};
+        } else if ("oscillator".equals(system)) {
+            Function[] functions = new Function[2];
+            functions[0] = new Function() {
+                @Override
+                public double calculate(double[] x) {
+                    return x[1];
+                }
+            };
+            functions[1] = new Function() {
+                @Override
+                public double calculate(double[] x) {
+                    return -x[0];
+                }
+            };
+            equations = new DifferentialEquationSystem(functions);
+            x0 = new double[]{0, 1, 0};
+        } else {
+            throw new IllegalArgumentException("Unknown system " + system);
+        }
+    }
+
+    /**
+     * Work of the measured solves, reported as rates next to the primary score.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Work {
+        public long steps;
+        public long evaluations;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            steps = 0;
+            evaluations = 0;
+        }
+    }
+
+    @Benchmark
+    public double[] solve(Work work) {
+        LastStateObserver observer = new LastStateObserver();
+        SolverStatistics statistics = equations.solve(method, x0, DT, steps, observer);
+        work.steps += steps;
+        work.evaluations += statistics.getEvaluations();
+        return observer.getState();
+    }
+}
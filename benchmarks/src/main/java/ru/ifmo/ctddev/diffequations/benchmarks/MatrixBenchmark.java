@@ -0,0 +1,96 @@
+package ru.ifmo.ctddev.diffequations.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.ifmo.ctddev.diffequations.InconsistentInputException;
+import ru.ifmo.ctddev.diffequations.Matrix;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dense linear solvers of {@link Matrix} on its own generators. Gauss runs on every generator;
+ * the iterative methods only on diagonally dominant matrices, where they are known to converge,
+ * so the time is the time to the tolerance and not to the iteration limit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixBenchmark {
+    private static final int MIN = -10;
+    private static final int MAX = 10;
+    private static final long MAX_ITERATIONS = 10000;
+    private static final double EPSILON = 1e-10;
+
+    @State(Scope.Benchmark)
+    public static class Direct {
+        @Param({"random", "hilbert", "diagonalDominance"})
+        public String fill;
+
+        @Param({"10", "100", "500"})
+        public int n;
+
+        Matrix matrix;
+        double[] b;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            matrix = new Matrix(n);
+            b = new double[n];
+            if ("random".equals(fill)) {
+                matrix.randomFill(b, MIN, MAX);
+            } else if ("hilbert".equals(fill)) {
+                matrix.hilbertFill(b, MIN, MAX);
+            } else if ("diagonalDominance".equals(fill)) {
+                matrix.diagonalDominanceFill(b, MIN, MAX, 1);
+            } else {
+                throw new IllegalArgumentException("Unknown fill " + fill);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Iterative {
+        @Param({"10", "100", "500"})
+        public int n;
+
+        @Param({"false", "true"})
+        public boolean seidel;
+
+        Matrix matrix;
+        double[] b;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            matrix = new Matrix(n);
+            b = new double[n];
+            matrix.diagonalDominanceFill(b, MIN, MAX, 1);
+        }
+    }
+
+    @Benchmark
+    public double[] gauss(Direct state) {
+        return state.matrix.gaussMethod(state.b);
+    }
+
+    @Benchmark
+    public double[] lu(Direct state) {
+        return state.matrix.luMethod(state.b);
+    }
+
+    @Benchmark
+    public double[] jacobi(Iterative state) throws InconsistentInputException {
+        return state.matrix.jacobiMethod(state.b, MAX_ITERATIONS, EPSILON, state.seidel, 1, false);
+    }
+}
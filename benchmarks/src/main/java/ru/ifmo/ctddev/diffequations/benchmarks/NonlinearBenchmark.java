@@ -0,0 +1,62 @@
+package ru.ifmo.ctddev.diffequations.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.ifmo.ctddev.diffequations.EquationSystem;
+import ru.ifmo.ctddev.diffequations.Function;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EquationSystem#universalMethod} on the Broyden tridiagonal system
+ * (3 - 2 x_i) x_i - x_{i-1} - 2 x_{i+1} + 1 = 0 from x = (-1, ..., -1).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NonlinearBenchmark {
+    @Param({"2", "10", "50"})
+    public int n;
+
+    private EquationSystem equations;
+    private double[] x0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final int size = n;
+        Function[] functions = new Function[n];
+        for (int i = 0; i < n; i++) {
+            final int k = i;
+            functions[i] = new Function() {
+                @Override
+                public double calculate(double[] x) {
+                    double left = k > 0 ? x[k - 1] : 0;
+                    double right = k < size - 1 ? x[k + 1] : 0;
+                    return (3 - 2 * x[k]) * x[k] - left - 2 * right + 1;
+                }
+            };
+        }
+        equations = new EquationSystem(functions);
+        x0 = new double[n];
+        Arrays.fill(x0, -1);
+    }
+
+    @Benchmark
+    public double[] universalMethod() {
+        return equations.universalMethod(x0, 1e-10, 100);
+    }
+}
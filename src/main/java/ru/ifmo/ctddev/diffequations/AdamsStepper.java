@@ -0,0 +1,91 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Four-step Adams method. Derivatives of the last four states are kept in a ring buffer,
+ * so a step evaluates the right-hand side once for Adams-Bashforth and twice for
+ * Adams-Bashforth-Moulton (predict, evaluate, correct, evaluate). The first three steps are
+ * made with the Runge-Kutta method.
+ */
+class AdamsStepper extends Stepper {
+    private final boolean correct;
+    private final RungeKuttaStepper starter;
+    /** f[last] is the derivative at x, f[(last - q) & 3] is the derivative q steps back **/
+    private final double[][] f;
+    private final double[] predicted;
+    private final double[] fp;
+    private int last;
+    private long steps;
+
+    /**
+     * @param correct whether to apply the Adams-Moulton corrector after the Adams-Bashforth predictor
+     */
+    AdamsStepper(VectorFunction function, boolean correct, SolverStatistics statistics) {
+        super(function, statistics);
+        this.correct = correct;
+        starter = new RungeKuttaStepper(function, statistics);
+        f = new double[4][n];
+        predicted = new double[n + 1];
+        fp = new double[n];
+    }
+
+    @Override
+    void reset(double[] x0) {
+        super.reset(x0);
+        last = 3;
+        steps = 0;
+    }
+
+    @Override
+    void save(StateBuffer buffer) {
+        super.save(buffer);
+        for (double[] row : f) {
+            buffer.put(row);
+        }
+        buffer.put(last);
+        buffer.put(steps);
+    }
+
+    @Override
+    void restore(StateBuffer buffer) {
+        super.restore(buffer);
+        for (double[] row : f) {
+            buffer.get(row);
+        }
+        last = buffer.getInt();
+        steps = (long) buffer.getDouble();
+    }
+
+    @Override
+    void step(double dt) {
+        /** the oldest derivative is not needed any more **/
+        last = (last + 1) & 3;
+        evaluate(x, f[last]);
+        if (steps < 3) {
+            starter.reset(x);
+            starter.step(dt);
+            System.arraycopy(starter.getState(), 0, x, 0, n + 1);
+            steps++;
+            return;
+        }
+        double[] f0 = f[last];
+        double[] f1 = f[(last + 3) & 3];
+        double[] f2 = f[(last + 2) & 3];
+        double[] f3 = f[(last + 1) & 3];
+        if (correct) {
+            for (int j = 0; j < n; j++) {
+                predicted[j] = x[j] + (55 * f0[j] - 59 * f1[j] + 37 * f2[j] - 9 * f3[j]) * dt / 24;
+            }
+            predicted[n] = x[n] + dt;
+            evaluate(predicted, fp);
+            for (int j = 0; j < n; j++) {
+                x[j] += (9 * fp[j] + 19 * f0[j] - 5 * f1[j] + f2[j]) * dt / 24;
+            }
+        } else {
+            for (int j = 0; j < n; j++) {
+                x[j] += (55 * f0[j] - 59 * f1[j] + 37 * f2[j] - 9 * f3[j]) * dt / 24;
+            }
+        }
+        x[n] += dt;
+        steps++;
+    }
+}
@@ -0,0 +1,28 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Result of an integration with variable step.
+ */
+public class AdaptiveSolution {
+    private final double[][] states;
+    private final SolverStatistics statistics;
+
+    AdaptiveSolution(double[][] states, SolverStatistics statistics) {
+        this.states = states;
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return accepted states, states[k][i] = x_i(t_k), i = 0..n-1, states[k][n] = t_k
+     */
+    public double[][] getStates() {
+        return states;
+    }
+
+    /**
+     * @return work done by the solve
+     */
+    public SolverStatistics getStatistics() {
+        return statistics;
+    }
+}
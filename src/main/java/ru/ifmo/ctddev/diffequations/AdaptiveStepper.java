@@ -0,0 +1,88 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.Arrays;
+
+/**
+ * Method with an estimate of the local error that chooses its own step size.
+ */
+abstract class AdaptiveStepper extends Stepper {
+    final double absoluteTolerance;
+    final double relativeTolerance;
+
+    /**
+     * @param absoluteTolerance absolute tolerance of the local error
+     * @param relativeTolerance relative tolerance of the local error
+     */
+    AdaptiveStepper(VectorFunction function, double absoluteTolerance, double relativeTolerance,
+                    SolverStatistics statistics) {
+        super(function, statistics);
+        if (absoluteTolerance < 0 || relativeTolerance < 0 || absoluteTolerance + relativeTolerance <= 0) {
+            throw new IllegalArgumentException("Tolerances must be non-negative and not both zero");
+        }
+        this.absoluteTolerance = absoluteTolerance;
+        this.relativeTolerance = relativeTolerance;
+    }
+
+    /**
+     * Tries one step of the size chosen by the error control, never stepping past tEnd.
+     *
+     * @param tEnd end of integration
+     * @return whether the step was accepted and the state advanced
+     */
+    abstract boolean attempt(double tEnd);
+
+    /**
+     * Evaluates the continuous extension of the last accepted step.
+     *
+     * @param t      time inside the last accepted step
+     * @param result output, result[i] = x_i(t), i = 0..n-1
+     */
+    abstract void interpolate(double t, double[] result);
+
+    double getTime() {
+        return x[n];
+    }
+
+    /**
+     * @return root mean square of v[j] / scale[j]
+     */
+    double rms(double[] v, double[] scale) {
+        double sum = 0;
+        for (int j = 0; j < n; j++) {
+            sum += (v[j] / scale[j]) * (v[j] / scale[j]);
+        }
+        return Math.sqrt(sum / n);
+    }
+
+    /**
+     * Initial step guess from the magnitudes of x, f(x) and the second derivative.
+     *
+     * @param f0    f(x)
+     * @param order order of the method
+     * @param tmp   work array of length n + 1
+     * @param f1    work array of length n, zeroed on return
+     * @return step size
+     */
+    double initialStep(double[] f0, int order, double[] tmp, double[] f1) {
+        double[] scale = new double[n];
+        for (int j = 0; j < n; j++) {
+            scale[j] = absoluteTolerance + relativeTolerance * Math.abs(x[j]);
+        }
+        double d0 = rms(x, scale);
+        double d1 = rms(f0, scale);
+        double h0 = d0 < 1e-5 || d1 < 1e-5 ? 1e-6 : 0.01 * d0 / d1;
+        for (int j = 0; j < n; j++) {
+            tmp[j] = x[j] + h0 * f0[j];
+        }
+        tmp[n] = x[n] + h0;
+        evaluate(tmp, f1);
+        for (int j = 0; j < n; j++) {
+            f1[j] -= f0[j];
+        }
+        double d2 = rms(f1, scale) / h0;
+        Arrays.fill(f1, 0);
+        double h1 = Math.max(d1, d2) <= 1e-15 ? Math.max(1e-6, h0 * 1e-3)
+                : Math.pow(0.01 / Math.max(d1, d2), 1.0 / (order + 1));
+        return Math.min(100 * h0, h1);
+    }
+}
@@ -0,0 +1,46 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.Arrays;
+
+/**
+ * Collects states into an array of vectors.
+ */
+public class ArrayObserver implements StepObserver {
+    private final int width;
+    private double[][] result;
+    private int size = 0;
+
+    /**
+     * @param width number of leading components to keep, n to drop the time or n + 1 to keep it
+     */
+    public ArrayObserver(int width) {
+        this(width, 16);
+    }
+
+    /**
+     * @param width    number of leading components to keep, n to drop the time or n + 1 to keep it
+     * @param capacity expected number of states
+     */
+    public ArrayObserver(int width, int capacity) {
+        this.width = width;
+        this.result = new double[Math.max(capacity, 1)][];
+    }
+
+    @Override
+    public void step(double[] x) {
+        if (size == result.length) {
+            result = Arrays.copyOf(result, 2 * size);
+        }
+        result[size++] = Arrays.copyOf(x, width);
+    }
+
+    /**
+     * @return collected states, res[k][i] = x_i after k + 1 steps
+     */
+    public double[][] getResult() {
+        if (size != result.length) {
+            result = Arrays.copyOf(result, size);
+        }
+        return result;
+    }
+}
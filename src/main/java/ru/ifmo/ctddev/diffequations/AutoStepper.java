@@ -0,0 +1,213 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Switches between the explicit Dormand-Prince method and BDF depending on the stiffness of the
+ * system, in the spirit of LSODA. Every few accepted steps the spectral radius rho of the Jacobian
+ * is estimated by power iteration with directional differences of f, so the Jacobian itself is
+ * never formed. The explicit method is stiff when its steps are pinned to the stability boundary,
+ * h * rho close to {@link #STABILITY_BOUNDARY}; the implicit one is not needed any more when its
+ * accuracy-limited steps would be stable for the explicit method too.
+ * <p>
+ * A switch restarts the other method from the current state before the next step, so the
+ * continuous extension of the last step stays valid. Switches are counted in the statistics.
+ */
+class AutoStepper extends AdaptiveStepper {
+    /** stability interval of the Dormand-Prince method on the negative real axis **/
+    static final double STABILITY_BOUNDARY = 3.3;
+    private static final double STIFF = 0.8 * STABILITY_BOUNDARY;
+    private static final double NON_STIFF = 0.4 * STABILITY_BOUNDARY;
+    /** accepted steps between two estimates of the spectral radius **/
+    private static final int CHECK_INTERVAL = 10;
+    private static final int POWER_ITERATIONS = 8;
+    /** consecutive estimates that must agree before a switch **/
+    private static final int CONFIRMATIONS = 2;
+
+    private final DormandPrinceStepper explicit;
+    private final BdfStepper implicit;
+    private final double[] v;
+    private final double[] jv;
+    private final double[] f0;
+    private final double[] tmp;
+    private AdaptiveStepper current;
+    private boolean stiff;
+    private boolean switchPending;
+    private int sinceCheck;
+    private int votes;
+
+    /**
+     * @param absoluteTolerance absolute tolerance of the local error
+     * @param relativeTolerance relative tolerance of the local error
+     * @param dense             whether {@link #interpolate} is going to be used
+     */
+    AutoStepper(VectorFunction function, double absoluteTolerance, double relativeTolerance, boolean dense,
+                SolverStatistics statistics) {
+        super(function, absoluteTolerance, relativeTolerance, statistics);
+        explicit = new DormandPrinceStepper(function, absoluteTolerance, relativeTolerance, dense, statistics);
+        implicit = new BdfStepper(function, absoluteTolerance, relativeTolerance, statistics);
+        v = new double[n];
+        jv = new double[n];
+        f0 = new double[n];
+        tmp = new double[n + 1];
+    }
+
+    /**
+     * Starts integration from x0 with the explicit method.
+     */
+    @Override
+    void reset(double[] x0) {
+        super.reset(x0);
+        for (int j = 0; j < n; j++) {
+            v[j] = 1 + j;
+        }
+        stiff = false;
+        switchPending = false;
+        sinceCheck = 0;
+        votes = 0;
+        current = explicit;
+        current.reset(x0);
+    }
+
+    /**
+     * Writes the switching state and both methods, the inactive one is written too to keep the
+     * layout fixed.
+     */
+    @Override
+    void save(StateBuffer buffer) {
+        super.save(buffer);
+        buffer.put(v);
+        buffer.put(stiff);
+        buffer.put(switchPending);
+        buffer.put(sinceCheck);
+        buffer.put(votes);
+        explicit.save(buffer);
+        implicit.save(buffer);
+    }
+
+    @Override
+    void restore(StateBuffer buffer) {
+        super.restore(buffer);
+        buffer.get(v);
+        stiff = buffer.getBoolean();
+        switchPending = buffer.getBoolean();
+        sinceCheck = buffer.getInt();
+        votes = buffer.getInt();
+        explicit.restore(buffer);
+        implicit.restore(buffer);
+        current = stiff ? implicit : explicit;
+    }
+
+    /**
+     * Advances by exactly dt with as many steps of the error control as needed.
+     */
+    @Override
+    void step(double dt) {
+        double tEnd = x[n] + dt;
+        while (x[n] < tEnd) {
+            attempt(tEnd);
+        }
+    }
+
+    @Override
+    boolean attempt(double tEnd) {
+        if (switchPending) {
+            switchPending = false;
+            stiff = !stiff;
+            current = stiff ? implicit : explicit;
+            current.reset(x);
+            statistics.switched(x[n]);
+        }
+        double t = x[n];
+        if (!current.attempt(tEnd)) {
+            return false;
+        }
+        System.arraycopy(current.getState(), 0, x, 0, n + 1);
+        if (stiff) {
+            statistics.stiffSteps++;
+        }
+        if (++sinceCheck >= CHECK_INTERVAL && x[n] < tEnd) {
+            sinceCheck = 0;
+            double hRho = (x[n] - t) * spectralRadius();
+            if (stiff ? hRho < NON_STIFF : hRho > STIFF) {
+                votes++;
+            } else {
+                votes = 0;
+            }
+            if (votes >= CONFIRMATIONS) {
+                votes = 0;
+                switchPending = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimates the largest absolute value of the Jacobian eigenvalues at the current state by
+     * power iteration, J v being the difference quotient of f along v. The vector is kept
+     * between calls, so later estimates start close to the dominant direction.
+     *
+     * @return spectral radius estimate
+     */
+    private double spectralRadius() {
+        evaluate(x, f0);
+        double xNorm = 0;
+        for (int j = 0; j < n; j++) {
+            xNorm += x[j] * x[j];
+        }
+        double delta = Math.sqrt(Math.ulp(1.0)) * (1 + Math.sqrt(xNorm));
+        tmp[n] = x[n];
+        /** the ratios of the first iterations depend on the start vector, only the later ones are averaged **/
+        double logSum = 0;
+        int counted = 0;
+        for (int k = 0; k < POWER_ITERATIONS; k++) {
+            double norm = normalize(v);
+            if (norm == 0) {
+                return 0;
+            }
+            for (int j = 0; j < n; j++) {
+                tmp[j] = x[j] + delta * v[j];
+            }
+            evaluate(tmp, jv);
+            for (int j = 0; j < n; j++) {
+                jv[j] = (jv[j] - f0[j]) / delta;
+            }
+            double ratio = Math.sqrt(dot(jv, jv));
+            if (ratio == 0) {
+                return 0;
+            }
+            if (k >= POWER_ITERATIONS / 2) {
+                logSum += Math.log(ratio);
+                counted++;
+            }
+            System.arraycopy(jv, 0, v, 0, n);
+        }
+        return Math.exp(logSum / counted);
+    }
+
+    /**
+     * Scales v to the unit length.
+     *
+     * @return length before scaling
+     */
+    private double normalize(double[] v) {
+        double norm = Math.sqrt(dot(v, v));
+        if (norm > 0) {
+            for (int j = 0; j < n; j++) {
+                v[j] /= norm;
+            }
+        }
+        return norm;
+    }
+
+    private double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int j = 0; j < n; j++) {
+            sum += a[j] * b[j];
+        }
+        return sum;
+    }
+
+    @Override
+    void interpolate(double t, double[] result) {
+        current.interpolate(t, result);
+    }
+}
@@ -0,0 +1,136 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Advances a batch of trajectories of one system in lockstep with a common fixed step. The state
+ * is a structure of arrays, x[i][m] = x_i of member m, and every stage of a method is a loop over
+ * the members, so small systems spend their time in arithmetic instead of per-trajectory overhead.
+ * Every member gets exactly the values of a separate solve with the same method.
+ */
+public class BatchIntegrator {
+    private final BatchVectorFunction function;
+    private final int n;
+    private final int members;
+    private final double[][][] k;
+    private final double[][] tmp;
+
+    /**
+     * @param function right-hand side
+     * @param members  number of trajectories
+     * @throws IllegalArgumentException if the function calculates another number of members
+     */
+    public BatchIntegrator(BatchVectorFunction function, int members) {
+        if (function.getMembers() != members) {
+            throw new IllegalArgumentException("Function calculates " + function.getMembers() + " members, not "
+                    + members);
+        }
+        this.function = function;
+        this.n = function.getDimension();
+        this.members = members;
+        k = new double[4][n][members];
+        tmp = new double[n][members];
+    }
+
+    /**
+     * Integrates all members from t0, overwriting the states.
+     *
+     * @param method     {@link DifferentialEquationSystem.Method#ExplicitEuler} or
+     *                   {@link DifferentialEquationSystem.Method#ExplicitRungeKutta}
+     * @param x          initial states, x[i][m] = x_i of member m, overwritten by the final ones
+     * @param t0         initial time
+     * @param dt         step
+     * @param iterations number of steps
+     * @param observer   receives the states after every step, or null
+     * @return work done for all members together
+     */
+    public SolverStatistics solve(DifferentialEquationSystem.Method method, double[][] x, double t0, double dt,
+                                  long iterations, Observer observer) {
+        if (x.length != n) {
+            throw new IllegalArgumentException("Expected " + n + " x " + members + " states");
+        }
+        for (double[] component : x) {
+            if (component.length != members) {
+                throw new IllegalArgumentException("Expected " + n + " x " + members + " states");
+            }
+        }
+        int stages;
+        switch (method) {
+            case ExplicitEuler:
+                stages = 1;
+                break;
+            case ExplicitRungeKutta:
+                stages = 4;
+                break;
+            default:
+                throw new IllegalArgumentException(method + " is not supported in batches");
+        }
+        long start = System.nanoTime();
+        double t = t0;
+        for (long step = 0; step < iterations; step++) {
+            if (stages == 1) {
+                eulerStep(x, t, dt);
+            } else {
+                rungeKuttaStep(x, t, dt);
+            }
+            t += dt;
+            if (observer != null) {
+                observer.step(x, t);
+            }
+        }
+        SolverStatistics statistics = new SolverStatistics();
+        statistics.acceptedSteps = iterations * members;
+        statistics.evaluations = iterations * stages * members;
+        statistics.wallNanos = System.nanoTime() - start;
+        SolverMetrics.getInstance().record(statistics);
+        return statistics;
+    }
+
+    private void eulerStep(double[][] x, double t, double dt) {
+        double[][] dx = k[0];
+        function.calculate(x, t, dx);
+        for (int i = 0; i < n; i++) {
+            double[] xi = x[i], dxi = dx[i];
+            for (int m = 0; m < members; m++) {
+                xi[m] += dxi[m] * dt;
+            }
+        }
+    }
+
+    private void rungeKuttaStep(double[][] x, double t, double dt) {
+        function.calculate(x, t, k[0]);
+        stage(x, k[0], dt / 2);
+        function.calculate(tmp, t + dt / 2, k[1]);
+        stage(x, k[1], dt / 2);
+        function.calculate(tmp, t + dt / 2, k[2]);
+        stage(x, k[2], dt);
+        function.calculate(tmp, t + dt, k[3]);
+        for (int i = 0; i < n; i++) {
+            double[] xi = x[i], k0 = k[0][i], k1 = k[1][i], k2 = k[2][i], k3 = k[3][i];
+            for (int m = 0; m < members; m++) {
+                xi[m] += dt * (k0[m] + 2 * k1[m] + 2 * k2[m] + k3[m]) / 6;
+            }
+        }
+    }
+
+    /**
+     * tmp = x + h * derivative, written as in {@link RungeKuttaStepper} so the rounding is the same.
+     */
+    private void stage(double[][] x, double[][] derivative, double h) {
+        for (int i = 0; i < n; i++) {
+            double[] xi = x[i], di = derivative[i], ti = tmp[i];
+            for (int m = 0; m < members; m++) {
+                ti[m] = xi[m] + di[m] * h;
+            }
+        }
+    }
+
+    /**
+     * Receives the states of a batch after every step. The arrays are reused, copy what is kept.
+     */
+    public interface Observer {
+        /**
+         * @param x states, x[i][m] = x_i of member m
+         * @param t time
+         */
+        void step(double[][] x, double t);
+    }
+}
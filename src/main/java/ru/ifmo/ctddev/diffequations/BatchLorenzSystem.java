@@ -0,0 +1,50 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * {@link LorenzSystem} for a batch of members, every member has its own sigma, r and b.
+ */
+public class BatchLorenzSystem extends BatchVectorFunction {
+    private final double[] sigma;
+    private final double[] r;
+    private final double[] b;
+
+    /**
+     * @param sigma sigma of every member
+     * @param r     r of every member
+     * @param b     b of every member
+     */
+    public BatchLorenzSystem(double[] sigma, double[] r, double[] b) {
+        if (r.length != sigma.length || b.length != sigma.length) {
+            throw new IllegalArgumentException("Parameter arrays differ in length");
+        }
+        this.sigma = sigma;
+        this.r = r;
+        this.b = b;
+    }
+
+    @Override
+    public int getDimension() {
+        return 3;
+    }
+
+    @Override
+    public int getMembers() {
+        return sigma.length;
+    }
+
+    @Override
+    public void calculate(double[][] x, double t, double[][] result) {
+        double[] x0 = x[0], x1 = x[1], x2 = x[2];
+        double[] f0 = result[0], f1 = result[1], f2 = result[2];
+        int members = sigma.length;
+        for (int m = 0; m < members; m++) {
+            f0[m] = sigma[m] * (x1[m] - x0[m]);
+        }
+        for (int m = 0; m < members; m++) {
+            f1[m] = -x0[m] * x2[m] + r[m] * x0[m] - x1[m];
+        }
+        for (int m = 0; m < members; m++) {
+            f2[m] = x0[m] * x1[m] - b[m] * x2[m];
+        }
+    }
+}
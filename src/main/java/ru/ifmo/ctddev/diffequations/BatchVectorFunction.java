@@ -0,0 +1,80 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Right-hand side evaluated for a batch of trajectories at once. States are stored as structure
+ * of arrays, x[i][m] = x_i of member m, so an implementation is a few loops over the members
+ * that the JIT compiler can vectorize.
+ */
+public abstract class BatchVectorFunction {
+
+    /**
+     * Wraps a vector function, evaluating it member by member. Useful for checking a hand-written
+     * batch function, but as slow as separate solves.
+     *
+     * @param function right-hand side of one trajectory
+     * @param members  number of members
+     * @return batch function calling the vector function for every member
+     */
+    public static BatchVectorFunction of(VectorFunction function, int members) {
+        return new PerMember(function, members);
+    }
+
+    /**
+     * @return number of components n
+     */
+    public abstract int getDimension();
+
+    /**
+     * @return number of members the function calculates
+     */
+    public abstract int getMembers();
+
+    /**
+     * Calculates the derivatives of all members.
+     *
+     * @param x      states, x[i][m] = x_i of member m, i = 0..n-1
+     * @param t      time, common to all members
+     * @param result output, result[i][m] = dx_i/dt of member m
+     */
+    public abstract void calculate(double[][] x, double t, double[][] result);
+
+    private static class PerMember extends BatchVectorFunction {
+        private final VectorFunction function;
+        private final int n;
+        private final int members;
+        private final double[] point;
+        private final double[] derivative;
+
+        PerMember(VectorFunction function, int members) {
+            this.function = function;
+            this.n = function.getDimension();
+            this.members = members;
+            this.point = new double[n + 1];
+            this.derivative = new double[n];
+        }
+
+        @Override
+        public int getDimension() {
+            return n;
+        }
+
+        @Override
+        public int getMembers() {
+            return members;
+        }
+
+        @Override
+        public void calculate(double[][] x, double t, double[][] result) {
+            for (int m = 0; m < members; m++) {
+                for (int i = 0; i < n; i++) {
+                    point[i] = x[i][m];
+                }
+                point[n] = t;
+                function.calculate(point, derivative);
+                for (int i = 0; i < n; i++) {
+                    result[i][m] = derivative[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.Arrays;
+
+/**
+ * Backward differentiation formulas of orders 1 to 5 with variable step size and order for stiff
+ * systems (quasi-constant step size implementation of Shampine and Reichelt). The solution is kept
+ * as modified backward differences D^j y_n on an equally spaced grid of the current step, a change
+ * of the step size re-expresses them on the new grid.
+ * <p>
+ * Every step solves y = y_pred + c * f(y) - psi by simplified Newton iterations with the factored
+ * matrix I - c * J, c = h / gamma_k. The Jacobian is kept until the iterations fail to converge,
+ * the factorization until c changes. The local error is the last correction times the error
+ * constant of the order; after k + 1 steps of equal size the orders k - 1 and k + 1 are tried too.
+ */
+class BdfStepper extends AdaptiveStepper {
+    static final int MAX_ORDER = 5;
+    private static final int NEWTON_MAX_ITERATIONS = 4;
+    private static final double MIN_FACTOR = 0.2;
+    private static final double MAX_FACTOR = 10;
+    /** gamma_k = 1 + 1/2 + ... + 1/k **/
+    private static final double[] GAMMA = new double[MAX_ORDER + 1];
+    /** error constants 1 / (k + 1) **/
+    private static final double[] ERROR_CONSTANT = new double[MAX_ORDER + 2];
+
+    static {
+        for (int k = 1; k <= MAX_ORDER; k++) {
+            GAMMA[k] = GAMMA[k - 1] + 1.0 / k;
+        }
+        for (int k = 0; k <= MAX_ORDER + 1; k++) {
+            ERROR_CONSTANT[k] = 1.0 / (k + 1);
+        }
+    }
+
+    private final IterationMatrix iterationMatrix;
+    private final double newtonTolerance;
+    /** differences[j] = D^j y_n scaled by h^j, rows up to MAX_ORDER + 2 **/
+    private final double[][] differences;
+    private final double[][] shifted;
+    private final double[][] r;
+    private final double[][] u;
+    private final double[][] ru;
+    private final double[] predicted;
+    private final double[] yNew;
+    private final double[] f;
+    private final double[] psi;
+    private final double[] correction;
+    private final double[] delta;
+    private final double[] scale;
+    private final double[] error;
+    private int order;
+    private double h;
+    private int equalSteps;
+    private int iterations;
+
+    /**
+     * @param absoluteTolerance absolute tolerance of the local error
+     * @param relativeTolerance relative tolerance of the local error
+     */
+    BdfStepper(VectorFunction function, double absoluteTolerance, double relativeTolerance,
+               SolverStatistics statistics) {
+        super(function, absoluteTolerance, relativeTolerance, statistics);
+        iterationMatrix = new IterationMatrix(function, statistics);
+        double epsilon = Math.ulp(1.0);
+        newtonTolerance = relativeTolerance > 0
+                ? Math.max(10 * epsilon / relativeTolerance, Math.min(0.03, Math.sqrt(relativeTolerance))) : 0.03;
+        differences = new double[MAX_ORDER + 3][n];
+        shifted = new double[MAX_ORDER + 1][n];
+        r = new double[MAX_ORDER + 1][MAX_ORDER + 1];
+        u = new double[MAX_ORDER + 1][MAX_ORDER + 1];
+        ru = new double[MAX_ORDER + 1][MAX_ORDER + 1];
+        predicted = new double[n + 1];
+        yNew = new double[n + 1];
+        f = new double[n];
+        psi = new double[n];
+        correction = new double[n];
+        delta = new double[n];
+        scale = new double[n];
+        error = new double[n];
+    }
+
+    /**
+     * Starts integration from x0 with the first order and guesses the initial step.
+     */
+    @Override
+    void reset(double[] x0) {
+        super.reset(x0);
+        iterationMatrix.reset();
+        for (double[] row : differences) {
+            Arrays.fill(row, 0);
+        }
+        evaluate(x, f);
+        h = initialStep(f, 1, predicted, delta);
+        System.arraycopy(x, 0, differences[0], 0, n);
+        for (int j = 0; j < n; j++) {
+            differences[1][j] = h * f[j];
+        }
+        order = 1;
+        equalSteps = 0;
+    }
+
+    /**
+     * Writes the differences with the step size and the order they are taken for.
+     */
+    @Override
+    void save(StateBuffer buffer) {
+        super.save(buffer);
+        for (double[] row : differences) {
+            buffer.put(row);
+        }
+        buffer.put(order);
+        buffer.put(h);
+        buffer.put(equalSteps);
+        iterationMatrix.save(buffer);
+    }
+
+    @Override
+    void restore(StateBuffer buffer) {
+        super.restore(buffer);
+        for (double[] row : differences) {
+            buffer.get(row);
+        }
+        order = buffer.getInt();
+        h = buffer.getDouble();
+        equalSteps = buffer.getInt();
+        iterationMatrix.restore(buffer);
+    }
+
+    /**
+     * Advances by exactly dt with as many steps of the error control as needed.
+     */
+    @Override
+    void step(double dt) {
+        double tEnd = x[n] + dt;
+        while (x[n] < tEnd) {
+            attempt(tEnd);
+        }
+    }
+
+    @Override
+    boolean attempt(double tEnd) {
+        double t = x[n];
+        if (h < 10 * Math.ulp(t)) {
+            throw new IllegalStateException("Step size underflow at t = " + t);
+        }
+        double tNew = t + h;
+        if (tNew > tEnd) {
+            tNew = tEnd;
+            changeStep(order, (tNew - t) / h);
+            h = tNew - t;
+            equalSteps = 0;
+        }
+
+        for (int j = 0; j < n; j++) {
+            double sum = 0, weighted = 0;
+            for (int i = 0; i <= order; i++) {
+                sum += differences[i][j];
+            }
+            for (int i = 1; i <= order; i++) {
+                weighted += differences[i][j] * GAMMA[i];
+            }
+            predicted[j] = sum;
+            psi[j] = weighted / GAMMA[order];
+            scale[j] = absoluteTolerance + relativeTolerance * Math.abs(sum);
+        }
+        predicted[n] = tNew;
+        double c = h / GAMMA[order];
+        boolean converged = newton(c);
+        if (!converged && !iterationMatrix.isFresh()) {
+            iterationMatrix.refresh(predicted);
+            converged = newton(c);
+        }
+        if (!converged) {
+            statistics.rejectedSteps++;
+            h *= 0.5;
+            changeStep(order, 0.5);
+            equalSteps = 0;
+            return false;
+        }
+
+        double safety = 0.9 * (2 * NEWTON_MAX_ITERATIONS + 1) / (2 * NEWTON_MAX_ITERATIONS + iterations);
+        for (int j = 0; j < n; j++) {
+            scale[j] = absoluteTolerance + relativeTolerance * Math.abs(yNew[j]);
+            error[j] = ERROR_CONSTANT[order] * correction[j];
+        }
+        double errorNorm = rms(error, scale);
+        if (errorNorm > 1) {
+            statistics.rejectedSteps++;
+            double factor = Math.max(MIN_FACTOR, safety * Math.pow(errorNorm, -1.0 / (order + 1)));
+            h *= factor;
+            changeStep(order, factor);
+            equalSteps = 0;
+            return false;
+        }
+
+        statistics.acceptedSteps++;
+        equalSteps++;
+        System.arraycopy(yNew, 0, x, 0, n + 1);
+        iterationMatrix.age();
+        /** D^{j+1} y_n = D^j y_n - D^j y_{n-1}, and the correction is D^{k+1} y_n **/
+        for (int j = 0; j < n; j++) {
+            differences[order + 2][j] = correction[j] - differences[order + 1][j];
+            differences[order + 1][j] = correction[j];
+        }
+        for (int i = order; i >= 0; i--) {
+            for (int j = 0; j < n; j++) {
+                differences[i][j] += differences[i + 1][j];
+            }
+        }
+        if (equalSteps >= order + 1) {
+            selectOrder(errorNorm, safety);
+        }
+        return true;
+    }
+
+    /**
+     * Chooses the order among k - 1, k and k + 1 that allows the largest next step.
+     */
+    private void selectOrder(double errorNorm, double safety) {
+        double lower = Double.POSITIVE_INFINITY;
+        double higher = Double.POSITIVE_INFINITY;
+        if (order > 1) {
+            for (int j = 0; j < n; j++) {
+                error[j] = ERROR_CONSTANT[order - 1] * differences[order][j];
+            }
+            lower = rms(error, scale);
+        }
+        if (order < MAX_ORDER) {
+            for (int j = 0; j < n; j++) {
+                error[j] = ERROR_CONSTANT[order + 1] * differences[order + 2][j];
+            }
+            higher = rms(error, scale);
+        }
+        double lowerFactor = Math.pow(lower, -1.0 / order);
+        double sameFactor = Math.pow(errorNorm, -1.0 / (order + 1));
+        double higherFactor = Math.pow(higher, -1.0 / (order + 2));
+        double best;
+        if (lowerFactor >= sameFactor && lowerFactor >= higherFactor) {
+            best = lowerFactor;
+            order--;
+        } else if (sameFactor >= higherFactor) {
+            best = sameFactor;
+        } else {
+            best = higherFactor;
+            order++;
+        }
+        double factor = Math.min(MAX_FACTOR, safety * best);
+        h *= factor;
+        changeStep(order, factor);
+        equalSteps = 0;
+    }
+
+    /**
+     * Simplified Newton iterations from the predicted state, the result is left in yNew and the
+     * total correction yNew - predicted in correction.
+     *
+     * @param c coefficient of the Jacobian
+     * @return whether the iterations converged
+     */
+    private boolean newton(double c) {
+        iterationMatrix.factor(predicted, c);
+        System.arraycopy(predicted, 0, yNew, 0, n + 1);
+        Arrays.fill(correction, 0);
+        double previousNorm = -1;
+        for (int k = 0; k < NEWTON_MAX_ITERATIONS; k++) {
+            iterations = k + 1;
+            statistics.newtonIterations++;
+            evaluate(yNew, f);
+            for (int j = 0; j < n; j++) {
+                if (Double.isNaN(f[j]) || Double.isInfinite(f[j])) {
+                    return false;
+                }
+                delta[j] = c * f[j] - psi[j] - correction[j];
+            }
+            iterationMatrix.solve(delta);
+            double norm = rms(delta, scale);
+            double rate = previousNorm < 0 ? -1 : norm / previousNorm;
+            if (rate >= 0 && (rate >= 1
+                    || Math.pow(rate, NEWTON_MAX_ITERATIONS - k) / (1 - rate) * norm > newtonTolerance)) {
+                return false;
+            }
+            for (int j = 0; j < n; j++) {
+                yNew[j] += delta[j];
+                correction[j] += delta[j];
+            }
+            if (norm == 0 || rate >= 0 && rate / (1 - rate) * norm < newtonTolerance) {
+                return true;
+            }
+            previousNorm = norm;
+        }
+        return false;
+    }
+
+    /**
+     * Re-expresses the differences of the given order on a grid with the step multiplied by factor.
+     */
+    private void changeStep(int order, double factor) {
+        ratios(order, factor, r);
+        ratios(order, 1, u);
+        for (int i = 0; i <= order; i++) {
+            for (int j = 0; j <= order; j++) {
+                double sum = 0;
+                for (int k = 0; k <= order; k++) {
+                    sum += r[i][k] * u[k][j];
+                }
+                ru[i][j] = sum;
+            }
+        }
+        for (int j = 0; j <= order; j++) {
+            Arrays.fill(shifted[j], 0);
+            for (int i = 0; i <= order; i++) {
+                double coefficient = ru[i][j];
+                for (int l = 0; l < n; l++) {
+                    shifted[j][l] += coefficient * differences[i][l];
+                }
+            }
+        }
+        for (int j = 0; j <= order; j++) {
+            System.arraycopy(shifted[j], 0, differences[j], 0, n);
+        }
+    }
+
+    /**
+     * result[i][j] = prod_{m=1..i} (m - 1 - factor * j) / m, result[0][j] = 1.
+     */
+    private static void ratios(int order, double factor, double[][] result) {
+        for (int j = 0; j <= order; j++) {
+            result[0][j] = 1;
+        }
+        for (int i = 1; i <= order; i++) {
+            result[i][0] = 0;
+            for (int j = 1; j <= order; j++) {
+                result[i][j] = result[i - 1][j] * (i - 1 - factor * j) / i;
+            }
+        }
+    }
+
+    /**
+     * Evaluates the interpolating polynomial of the differences, valid until the next attempt.
+     */
+    @Override
+    void interpolate(double t, double[] result) {
+        double tn = x[n];
+        System.arraycopy(differences[0], 0, result, 0, n);
+        double product = 1;
+        for (int k = 1; k <= order; k++) {
+            product *= (t - (tn - (k - 1) * h)) / (k * h);
+            for (int j = 0; j < n; j++) {
+                result[j] += differences[k][j] * product;
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.Arrays;
+
+/**
+ * States of one bucket of a decimated trajectory reduced to the extremes: for every watched
+ * component the states where it is the smallest and the largest, together with the mean of the
+ * components. Fast excursions inside the bucket are extremes of some component, so they survive
+ * decimation whatever the length of the bucket.
+ */
+class BucketExtremes {
+    private final int[] components;
+    /** rows[2 * c] holds the minimum of components[c], rows[2 * c + 1] the maximum **/
+    private final double[][] rows;
+    private final long[] indices;
+    /** values[slot] is the watched component of rows[slot], compared without reading the rows **/
+    private final double[] values;
+    private final double[] sum;
+    private long count = 0;
+
+    /**
+     * @param n          number of components of the states
+     * @param components watched components, i = n for the time
+     */
+    BucketExtremes(int n, int[] components) {
+        this.components = components;
+        rows = new double[2 * components.length][n + 1];
+        indices = new long[rows.length];
+        values = new double[rows.length];
+        sum = new double[components.length];
+    }
+
+    void clear() {
+        count = 0;
+        Arrays.fill(sum, 0);
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @param index number of the state in the trajectory
+     * @param x     state, x[n] = t
+     */
+    void add(long index, double[] x) {
+        boolean first = count == 0;
+        for (int c = 0; c < components.length; c++) {
+            double value = x[components[c]];
+            sum[c] += value;
+            if (first || value < values[2 * c]) {
+                set(2 * c, index, value, x);
+            }
+            if (first || value > values[2 * c + 1]) {
+                set(2 * c + 1, index, value, x);
+            }
+        }
+        count++;
+    }
+
+    private void set(int slot, long index, double value, double[] x) {
+        System.arraycopy(x, 0, rows[slot], 0, x.length);
+        indices[slot] = index;
+        values[slot] = value;
+    }
+
+    /**
+     * @param result output, result[c] = mean of components[c] over the bucket
+     */
+    void average(double[] result) {
+        for (int c = 0; c < sum.length; c++) {
+            result[c] = sum[c] / count;
+        }
+    }
+
+    /**
+     * Lists the extremes in the order of the trajectory, a state that is an extreme of several
+     * components is listed once.
+     *
+     * @param order output of length at least 2 * number of watched components
+     * @return number of listed slots
+     */
+    int sorted(int[] order) {
+        int size = 0;
+        for (int slot = 0; slot < rows.length; slot++) {
+            int position = size;
+            boolean duplicate = false;
+            for (int k = 0; k < size; k++) {
+                if (indices[order[k]] == indices[slot]) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (duplicate) {
+                continue;
+            }
+            while (position > 0 && indices[order[position - 1]] > indices[slot]) {
+                order[position] = order[position - 1];
+                position--;
+            }
+            order[position] = slot;
+            size++;
+        }
+        return size;
+    }
+
+    double[] row(int slot) {
+        return rows[slot];
+    }
+
+    long index(int slot) {
+        return indices[slot];
+    }
+
+    /**
+     * @return components[c] of the state in the slot
+     */
+    double component(int slot, int c) {
+        return rows[slot][components[c]];
+    }
+}
@@ -0,0 +1,38 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Passes states to another observer until {@link #cancel} is called from any thread, then
+ * aborts the solve it observes by throwing {@link CancellationException} from the next step.
+ */
+public class CancellableObserver implements StepObserver {
+    private final StepObserver observer;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param observer receiver of the states
+     */
+    public CancellableObserver(StepObserver observer) {
+        this.observer = observer;
+    }
+
+    /**
+     * Makes the next step throw {@link CancellationException}.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void step(double[] x) {
+        if (cancelled) {
+            throw new CancellationException("Solve cancelled at t = " + x[x.length - 1]);
+        }
+        observer.step(x);
+    }
+}
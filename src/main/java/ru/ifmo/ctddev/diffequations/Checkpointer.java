@@ -0,0 +1,223 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Saves the full solver state of a running solve to a file every few grid steps, so a solve
+ * killed with the JVM can go on from the last checkpoint with
+ * {@link DifferentialEquationSystem#resume(Path, long, StepObserver, Checkpointer)}.
+ * <p>
+ * The solve only copies the state of the method, the file is written by a background thread.
+ * If the thread is still busy when the next checkpoint comes, the waiting one is replaced, so a
+ * slow disk never holds the solve back. Every file is written next to the target and moved over
+ * it, a crash in the middle of a write leaves the previous checkpoint intact. A checkpoint takes a
+ * fraction of a millisecond of the writer thread, so intervals of a second of solving or more do
+ * not slow the solve down noticeably.
+ * <p>
+ * Layout, little-endian: a header of {@link #HEADER_BYTES} bytes (magic, version, n, method
+ * code, absolute and relative tolerance, t0, dt, number of steps, length of the method state)
+ * followed by the last grid state x_0..x_{n-1}, t and the method state.
+ */
+public class Checkpointer implements Closeable {
+    static final int MAGIC = 0x44455143;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    private final Path path;
+    private final long interval;
+    private final ExecutorService writer;
+    private final AtomicReference<SolverState> pending = new AtomicReference<>();
+    private volatile IOException failure;
+    private volatile boolean closed = false;
+    private volatile long written = 0;
+
+    /**
+     * @param path     checkpoint file, overwritten by every checkpoint
+     * @param interval grid steps between checkpoints, counted from the initial time
+     */
+    public Checkpointer(Path path, long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + interval);
+        }
+        this.path = path;
+        this.interval = interval;
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "checkpoint writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return grid steps between checkpoints
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return number of checkpoints written to the file
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Called before a solve starts, so a closed checkpointer fails before any work is done.
+     *
+     * @throws IllegalStateException if the checkpointer is closed
+     */
+    void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Checkpointer of " + path + " is closed");
+        }
+    }
+
+    /**
+     * Hands the state to the writer thread and returns at once.
+     *
+     * @param state state to save, not changed afterwards
+     * @throws IllegalStateException if the checkpointer is closed
+     */
+    void checkpoint(SolverState state) {
+        ensureOpen();
+        if (pending.getAndSet(state) == null) {
+            try {
+                scheduleWrite();
+            } catch (RejectedExecutionException e) {
+                pending.set(null);
+                throw new IllegalStateException("Checkpointer of " + path + " is closed", e);
+            }
+        }
+    }
+
+    private void scheduleWrite() {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                SolverState latest = pending.getAndSet(null);
+                try {
+                    write(latest, path);
+                    written++;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the last checkpoint to reach the file.
+     *
+     * @throws IOException if a checkpoint could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        writer.shutdown();
+        try {
+            while (!writer.awaitTermination(1, TimeUnit.SECONDS)) {
+                /** the last write has to finish, or the file would miss the end of the solve **/
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes the state to the file at once.
+     *
+     * @param state state to save
+     * @param path  file to create or overwrite
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(SolverState state, Path path) throws IOException {
+        double[] x = state.getState();
+        double[] snapshot = state.getSnapshot().toArray();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 8 * (x.length + snapshot.length))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(state.getDimension());
+        buffer.putInt(state.getMethod().getCode());
+        buffer.putDouble(state.getAbsoluteTolerance());
+        buffer.putDouble(state.getRelativeTolerance());
+        buffer.putDouble(state.getInitialTime());
+        buffer.putDouble(state.getStep());
+        buffer.putLong(state.getSteps());
+        buffer.putInt(snapshot.length);
+        buffer.position(HEADER_BYTES);
+        buffer.asDoubleBuffer().put(x).put(snapshot);
+        buffer.rewind();
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param path file written by a checkpointer or {@link #write}
+     * @return saved state, its statistics are empty
+     * @throws IOException if the file cannot be read or is not a checkpoint
+     */
+    public static SolverState read(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a checkpoint file: " + path);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+        int n = buffer.getInt();
+        DifferentialEquationSystem.Method method = DifferentialEquationSystem.Method.forCode(buffer.getInt());
+        if (n <= 0 || method == null) {
+            throw new IOException("Corrupted checkpoint header: " + path);
+        }
+        double absoluteTolerance = buffer.getDouble();
+        double relativeTolerance = buffer.getDouble();
+        double t0 = buffer.getDouble();
+        double dt = buffer.getDouble();
+        long steps = buffer.getLong();
+        int length = buffer.getInt();
+        buffer.position(HEADER_BYTES);
+        if (length < 0 || buffer.remaining() != 8L * (n + 1 + length)) {
+            throw new IOException("Truncated checkpoint: " + path);
+        }
+        double[] x = new double[n + 1];
+        double[] snapshot = new double[length];
+        buffer.asDoubleBuffer().get(x).get(snapshot);
+        return new SolverState(method, absoluteTolerance, relativeTolerance, t0, dt, steps, x, snapshot,
+                new SolverStatistics());
+    }
+}
@@ -0,0 +1,59 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Collects states into chunks and hands every full chunk over, so a consumer on another thread
+ * can show a solve while it runs. Chunks start small and double up to a limit: the first one
+ * arrives almost at once, and a long solve does not flood the consumer.
+ */
+public class ChunkedObserver implements StepObserver {
+    private final int maxChunk;
+    private final Sink sink;
+    private double[][] chunk;
+    private int size = 0;
+
+    /**
+     * @param firstChunk number of states in the first chunk
+     * @param maxChunk   largest number of states in a chunk
+     * @param sink       receiver of the chunks, called from the solving thread
+     */
+    public ChunkedObserver(int firstChunk, int maxChunk, Sink sink) {
+        if (firstChunk <= 0 || maxChunk < firstChunk) {
+            throw new IllegalArgumentException("Bad chunk sizes " + firstChunk + ", " + maxChunk);
+        }
+        this.maxChunk = maxChunk;
+        this.sink = sink;
+        chunk = new double[firstChunk][];
+    }
+
+    @Override
+    public void step(double[] x) {
+        chunk[size++] = x.clone();
+        if (size == chunk.length) {
+            sink.chunk(chunk);
+            chunk = new double[Math.min(maxChunk, 2 * chunk.length)][];
+            size = 0;
+        }
+    }
+
+    /**
+     * Hands over the states of the unfinished chunk, if there are any.
+     */
+    public void flush() {
+        if (size > 0) {
+            double[][] rest = new double[size][];
+            System.arraycopy(chunk, 0, rest, 0, size);
+            sink.chunk(rest);
+            size = 0;
+        }
+    }
+
+    /**
+     * Receiver of chunks.
+     */
+    public interface Sink {
+        /**
+         * @param states states in order, states[k][n] = t; the arrays are not reused
+         */
+        void chunk(double[][] states);
+    }
+}
@@ -0,0 +1,322 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of the class file format (version 52, Java 8) to write a public final class with
+ * straight-line methods. Methods have no branches, so they need no stack map frames.
+ */
+class ClassFileWriter {
+    /** limit of the code length, the operand stack, the locals and the constant pool **/
+    static final int LIMIT = 0xffff;
+    static final int ALOAD_0 = 0x2a;
+    static final int ALOAD_1 = 0x2b;
+    static final int ALOAD_2 = 0x2c;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int DLOAD = 0x18;
+    static final int DSTORE = 0x39;
+    static final int DALOAD = 0x31;
+    static final int DASTORE = 0x52;
+    static final int DUP2 = 0x5c;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int IRETURN = 0xac;
+    static final int DRETURN = 0xaf;
+    static final int RETURN = 0xb1;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int WIDE = 0xc4;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private final List<byte[]> methods = new ArrayList<>();
+    private final int thisClass;
+    private final int superClass;
+    private int poolSize = 1;
+
+    /**
+     * @param name       internal name of the class, e.g. a/b/C
+     * @param superClass internal name of the superclass
+     */
+    ClassFileWriter(String name, String superClass) {
+        this.thisClass = classEntry(name);
+        this.superClass = classEntry(superClass);
+    }
+
+    int utf8(final String value) {
+        Integer index = entries.get("U" + value);
+        if (index == null) {
+            index = entry("U" + value, 1);
+            write(new Writer() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    out.writeByte(1);
+                    out.writeUTF(value);
+                }
+            });
+        }
+        return index;
+    }
+
+    int classEntry(String name) {
+        final int utf8 = utf8(name);
+        Integer index = entries.get("C" + name);
+        if (index == null) {
+            index = entry("C" + name, 1);
+            write(new Writer() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    out.writeByte(7);
+                    out.writeShort(utf8);
+                }
+            });
+        }
+        return index;
+    }
+
+    int methodEntry(String owner, String name, String descriptor) {
+        final int ownerIndex = classEntry(owner);
+        final int nameIndex = utf8(name);
+        final int descriptorIndex = utf8(descriptor);
+        String key = "N" + name + ":" + descriptor;
+        Integer nameAndType = entries.get(key);
+        if (nameAndType == null) {
+            nameAndType = entry(key, 1);
+            write(new Writer() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    out.writeByte(12);
+                    out.writeShort(nameIndex);
+                    out.writeShort(descriptorIndex);
+                }
+            });
+        }
+        final int nameAndTypeIndex = nameAndType;
+        key = "M" + owner + "." + name + ":" + descriptor;
+        Integer index = entries.get(key);
+        if (index == null) {
+            index = entry(key, 1);
+            write(new Writer() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    out.writeByte(10);
+                    out.writeShort(ownerIndex);
+                    out.writeShort(nameAndTypeIndex);
+                }
+            });
+        }
+        return index;
+    }
+
+    int doubleEntry(final double value) {
+        String key = "D" + Double.doubleToRawLongBits(value);
+        Integer index = entries.get(key);
+        if (index == null) {
+            /** doubles take two entries of the pool **/
+            index = entry(key, 2);
+            write(new Writer() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    out.writeByte(6);
+                    out.writeDouble(value);
+                }
+            });
+        }
+        return index;
+    }
+
+    int intEntry(final int value) {
+        String key = "I" + value;
+        Integer index = entries.get(key);
+        if (index == null) {
+            index = entry(key, 1);
+            write(new Writer() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    out.writeByte(3);
+                    out.writeInt(value);
+                }
+            });
+        }
+        return index;
+    }
+
+    /**
+     * Adds a public method.
+     *
+     * @param name       method name
+     * @param descriptor method descriptor
+     * @param code       body
+     * @throws IllegalArgumentException if the body exceeds the limits of the class file format
+     */
+    void method(String name, String descriptor, Code code) {
+        byte[] body = code.bytes.toByteArray();
+        if (body.length >= LIMIT) {
+            throw new IllegalArgumentException("Method " + name + " takes " + body.length
+                    + " bytes of code, this writer allows " + (LIMIT - 1) + ", simplify the expressions");
+        }
+        if (code.maxStack > LIMIT || code.maxLocals > LIMIT) {
+            throw new IllegalArgumentException("Method " + name + " needs " + code.maxStack + " stack and "
+                    + code.maxLocals + " local slots, a class file allows " + LIMIT + ", simplify the expressions");
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(ACC_PUBLIC);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(2 + 2 + 4 + body.length + 2 + 2);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(0);
+            out.writeShort(0);
+            methods.add(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return class file
+     */
+    byte[] toByteArray() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            out.writeShort(poolSize);
+            poolOut.flush();
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int entry(String key, int size) {
+        int index = poolSize;
+        if (index + size > LIMIT) {
+            throw new IllegalArgumentException("Constant pool is full, a class file allows " + LIMIT
+                    + " entries, simplify the expressions");
+        }
+        entries.put(key, index);
+        poolSize += size;
+        return index;
+    }
+
+    private void write(Writer writer) {
+        try {
+            writer.write(poolOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Body of a method, keeps track of the operand stack depth in slots.
+     */
+    static class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        /**
+         * @param maxLocals slots taken by this and the arguments
+         */
+        Code(int maxLocals) {
+            this.maxLocals = maxLocals;
+        }
+
+        /**
+         * @param opcode      instruction without operands
+         * @param stackChange change of the stack depth in slots
+         */
+        Code op(int opcode, int stackChange) {
+            bytes.write(opcode);
+            return grow(stackChange);
+        }
+
+        Code op(int opcode, int operand, int operandBytes, int stackChange) {
+            bytes.write(opcode);
+            if (operandBytes == 2) {
+                bytes.write(operand >>> 8);
+            }
+            bytes.write(operand);
+            return grow(stackChange);
+        }
+
+        /**
+         * Pushes an int constant.
+         */
+        Code pushInt(ClassFileWriter writer, int value) {
+            if (value >= -1 && value <= 5) {
+                return op(ICONST_0 + value, 1);
+            }
+            if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                return op(BIPUSH, value & 0xff, 1, 1);
+            }
+            if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                return op(SIPUSH, value & 0xffff, 2, 1);
+            }
+            return op(LDC_W, writer.intEntry(value), 2, 1);
+        }
+
+        /**
+         * Loads or stores a double local variable.
+         */
+        Code local(int opcode, int slot, int stackChange) {
+            maxLocals = Math.max(maxLocals, slot + 2);
+            if (slot > 0xff) {
+                bytes.write(WIDE);
+                return op(opcode, slot, 2, stackChange);
+            }
+            return op(opcode, slot, 1, stackChange);
+        }
+
+        private Code grow(int stackChange) {
+            stack += stackChange;
+            maxStack = Math.max(maxStack, stack);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Preconditioned conjugate gradients that touch the matrix only through products with vectors.
+ * {@link #solve} handles symmetric positive definite systems, {@link #solveNormal} any
+ * nonsingular ones through the normal equations A^T A x = A^T b without forming A^T A (CGNR).
+ * <p>
+ * The work vectors are allocated once, so a solver should be reused for a series of systems
+ * with the same matrix. An instance is not thread-safe.
+ */
+public class ConjugateGradients {
+    private final LinearOperator operator;
+    private final Preconditioner preconditioner;
+    private final int n;
+    private final double[] r;
+    private final double[] z;
+    private final double[] p;
+    private final double[] q;
+    private long iterations;
+    private double residual;
+
+    /**
+     * @param operator A
+     */
+    public ConjugateGradients(LinearOperator operator) {
+        this(operator, null);
+    }
+
+    /**
+     * @param operator       A
+     * @param preconditioner M, approximation of A for {@link #solve} or of A^T A for {@link #solveNormal},
+     *                       null for none
+     */
+    public ConjugateGradients(LinearOperator operator, Preconditioner preconditioner) {
+        this.operator = operator;
+        this.preconditioner = preconditioner;
+        this.n = operator.size();
+        r = new double[n];
+        z = new double[n];
+        p = new double[n];
+        q = new double[n];
+    }
+
+    /**
+     * Solves Ax = b for a symmetric positive definite A, one product with A per iteration.
+     *
+     * @param b             right-hand side
+     * @param x             initial guess, overwritten by the solution
+     * @param maxIterations maximum number of iterations
+     * @param tolerance     relative residual, the iterations stop when ||b - Ax|| <= tolerance * ||b||
+     * @return x
+     */
+    public double[] solve(double[] b, double[] x, long maxIterations, double tolerance) {
+        operator.apply(x, q);
+        for (int i = 0; i < n; i++) {
+            r[i] = b[i] - q[i];
+        }
+        double stop = tolerance * norm(b);
+        double rr = dot(r, r);
+        precondition(r, z);
+        System.arraycopy(z, 0, p, 0, n);
+        double rz = dot(r, z);
+        iterations = 0;
+        while (iterations < maxIterations && Math.sqrt(rr) > stop) {
+            operator.apply(p, q);
+            double pq = dot(p, q);
+            if (pq <= 0) {
+                /** breakdown, A is not positive definite or the solution is exact **/
+                break;
+            }
+            double alpha = rz / pq;
+            for (int i = 0; i < n; i++) {
+                x[i] += alpha * p[i];
+                r[i] -= alpha * q[i];
+            }
+            rr = dot(r, r);
+            precondition(r, z);
+            double rzNext = dot(r, z);
+            double beta = rzNext / rz;
+            for (int i = 0; i < n; i++) {
+                p[i] = z[i] + beta * p[i];
+            }
+            rz = rzNext;
+            iterations++;
+        }
+        residual = relative(Math.sqrt(rr), b);
+        return x;
+    }
+
+    /**
+     * Solves Ax = b for any nonsingular A by conjugate gradients on A^T A x = A^T b, one product
+     * with A and one with A^T per iteration. The residual b - Ax is updated along the way, so the
+     * stopping test costs nothing extra.
+     *
+     * @param b             right-hand side
+     * @param x             initial guess, overwritten by the solution
+     * @param maxIterations maximum number of iterations
+     * @param tolerance     relative residual, the iterations stop when ||b - Ax|| <= tolerance * ||b||
+     * @return x
+     */
+    public double[] solveNormal(double[] b, double[] x, long maxIterations, double tolerance) {
+        operator.apply(x, q);
+        for (int i = 0; i < n; i++) {
+            r[i] = b[i] - q[i];
+        }
+        double stop = tolerance * norm(b);
+        double rr = dot(r, r);
+        /** z = M^-1 A^T r is kept in z, A^T r in q between the iterations **/
+        operator.applyTranspose(r, q);
+        precondition(q, z);
+        System.arraycopy(z, 0, p, 0, n);
+        double gamma = dot(q, z);
+        iterations = 0;
+        while (iterations < maxIterations && Math.sqrt(rr) > stop && gamma > 0) {
+            operator.apply(p, q);
+            double qq = dot(q, q);
+            if (qq == 0) {
+                break;
+            }
+            double alpha = gamma / qq;
+            for (int i = 0; i < n; i++) {
+                x[i] += alpha * p[i];
+                r[i] -= alpha * q[i];
+            }
+            rr = dot(r, r);
+            operator.applyTranspose(r, q);
+            precondition(q, z);
+            double gammaNext = dot(q, z);
+            double beta = gammaNext / gamma;
+            for (int i = 0; i < n; i++) {
+                p[i] = z[i] + beta * p[i];
+            }
+            gamma = gammaNext;
+            iterations++;
+        }
+        residual = relative(Math.sqrt(rr), b);
+        return x;
+    }
+
+    /**
+     * @param b right-hand side
+     * @return solution of Ax = b from the zero initial guess with the precision of doubles
+     */
+    public double[] solve(double[] b) {
+        return solve(b, new double[n], 10L * n, 1e-14);
+    }
+
+    /**
+     * @return iterations made by the last solve
+     */
+    public long getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return ||b - Ax|| / ||b|| after the last solve
+     */
+    public double getResidual() {
+        return residual;
+    }
+
+    private void precondition(double[] r, double[] z) {
+        if (preconditioner == null) {
+            System.arraycopy(r, 0, z, 0, n);
+        } else {
+            preconditioner.apply(r, z);
+        }
+    }
+
+    private static double relative(double norm, double[] b) {
+        double normB = norm(b);
+        return normB == 0 ? norm : norm / normB;
+    }
+
+    private static double norm(double[] a) {
+        return Math.sqrt(dot(a, a));
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double result = 0;
+        for (int i = 0; i < a.length; i++) {
+            result += a[i] * b[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,32 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Passes every k-th state to another observer, starting with the first one.
+ */
+public class DecimatingObserver implements StepObserver {
+    private final int period;
+    private final StepObserver observer;
+    private int counter = 0;
+
+    /**
+     * @param period   k, number of steps between passed states
+     * @param observer receiver of the passed states
+     */
+    public DecimatingObserver(int period, StepObserver observer) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        this.period = period;
+        this.observer = observer;
+    }
+
+    @Override
+    public void step(double[] x) {
+        if (counter == 0) {
+            observer.step(x);
+        }
+        if (++counter == period) {
+            counter = 0;
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package ru.ifmo.ctddev.diffequations;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.file.Path;
 
 public class DifferentialEquationSystem {
-    private static final double EPS = 1e-6;
-    private static final long MAX_ITERATIONS = 1000;
-    private final Function[] functions;
+    /**
+     * Tolerances of methods with error control when they are asked for a fixed grid
+     */
+    public static final double DEFAULT_ABSOLUTE_TOLERANCE = 1e-8;
+    public static final double DEFAULT_RELATIVE_TOLERANCE = 1e-8;
+    private final VectorFunction function;
     private final int n;
 
     /**
@@ -14,8 +18,17 @@ public class DifferentialEquationSystem {
      * @param functions f[i](x(t), t) = dx_i/dt(x(t), t)
      */
     public DifferentialEquationSystem(Function[] functions) {
-        this.functions = functions;
-        this.n = functions.length;
+        this(VectorFunction.of(functions));
+    }
+
+    /**
+     * Creates new differential equations system.
+     *
+     * @param function f(x(t), t) = dx/dt(x(t), t)
+     */
+    public DifferentialEquationSystem(VectorFunction function) {
+        this.function = function;
+        this.n = function.getDimension();
     }
 
     /**
@@ -28,169 +41,428 @@ public class DifferentialEquationSystem {
      * @return array of vectors, res[n][i] = x_i(t0 + (n + 1) * dt)
      */
     public double[][] solve(Method method, double[] x0, double dt, int iterations) {
-        switch (method) {
-            case ExplicitEuler:
-                return explicitEulerMethod(x0, dt, iterations);
-            case ImplicitEuler:
-                return implicitEulerMethod(x0, dt, iterations);
-            case ExplicitRungeKutta:
-                return explicitRungeKuttaMethod(x0, dt, iterations);
-            case ExplicitAdamsBashfort:
-                return explicitAdamsMethod(x0, dt, iterations);
-            default:
-                return null;
+        ArrayObserver observer = new ArrayObserver(n, iterations);
+        solve(method, x0, dt, iterations, observer);
+        return observer.getResult();
+    }
+
+    /**
+     * Calculates the function x(t) using the differential equations into flat storage
+     *
+     * @param method     method of solving
+     * @param x0         initial state, x0[i] = x0_i, i = 0..n-1, x0[n] = t0
+     * @param dt         step
+     * @param iterations number of steps
+     * @return trajectory, row k holds x(t0 + (k + 1) * dt) and its time
+     */
+    public Trajectory solveTrajectory(Method method, double[] x0, double dt, long iterations) {
+        Trajectory trajectory = new Trajectory(n, iterations);
+        solve(method, x0, dt, iterations, trajectory);
+        return trajectory;
+    }
+
+    /**
+     * Calculates the function x(t) using the differential equations into a memory-mapped file
+     *
+     * @param method     method of solving
+     * @param x0         initial state, x0[i] = x0_i, i = 0..n-1, x0[n] = t0
+     * @param dt         step
+     * @param iterations number of steps
+     * @param path       file to write, read it with {@link MappedTrajectoryReader}
+     * @return work done by the solve
+     * @throws IOException if the file cannot be written
+     */
+    public SolverStatistics solveToFile(Method method, double[] x0, double dt, long iterations, Path path)
+            throws IOException {
+        try (MappedTrajectoryWriter writer = new MappedTrajectoryWriter(path, n, x0[n], dt, method)) {
+            return solve(method, x0, dt, iterations, writer);
         }
     }
 
-    private double[][] explicitEulerMethod(final double[] x0, final double dt, final int iterations) {
-        double[][] result = new double[iterations][n];
-        double[] x = Arrays.copyOf(x0, x0.length);
-        double[] dx = new double[n];
-        for (int i = 0; i < iterations; i++) {
-            for (int j = 0; j < n; j++) {
-                dx[j] = functions[j].calculate(x) * dt;
-            }
-            for (int j = 0; j < n; j++) {
-                x[j] += dx[j];
-                result[i][j] = x[j];
-            }
-            x[n] += dt;
+    /**
+     * Calculates the function x(t) using the differential equations and passes every state to
+     * the observer instead of keeping it. Methods with error control choose their own steps
+     * and report the grid points from their continuous extension.
+     *
+     * @param method     method of solving
+     * @param x0         initial state, x0[i] = x0_i, i = 0..n-1, x0[n] = t0
+     * @param dt         step
+     * @param iterations number of steps
+     * @param observer   receives x(t0 + (k + 1) * dt), k = 0..iterations-1
+     * @return work done by the solve
+     */
+    public SolverStatistics solve(Method method, double[] x0, double dt, long iterations, StepObserver observer) {
+        long start = System.nanoTime();
+        SolverStatistics statistics = new SolverStatistics();
+        Stepper stepper = createStepper(function, method, DEFAULT_ABSOLUTE_TOLERANCE, DEFAULT_RELATIVE_TOLERANCE,
+                true, statistics);
+        integrate(stepper, x0, dt, iterations, observer);
+        statistics.wallNanos = System.nanoTime() - start;
+        SolverMetrics.getInstance().record(statistics);
+        return statistics;
+    }
+
+    /**
+     * Calculates the function x(t) like
+     * {@link #solve(Method, double[], double, long, StepObserver)} and keeps the state of the method,
+     * so the solve can be extended later. Methods with error control do not shorten their last step
+     * to the end of the grid, the continuous extension gives the last states instead; the work is
+     * then the same however the grid is split into solves.
+     *
+     * @param method     method of solving
+     * @param x0         initial state, x0[i] = x0_i, i = 0..n-1, x0[n] = t0
+     * @param dt         step
+     * @param iterations number of steps
+     * @param observer   receives x(t0 + (k + 1) * dt), k = 0..iterations-1
+     * @return state to continue from with {@link #resume}
+     */
+    public SolverState solveResumable(Method method, double[] x0, double dt, long iterations, StepObserver observer) {
+        return solveResumable(method, x0, dt, iterations, observer, null);
+    }
+
+    /**
+     * Calculates the function x(t) like {@link #solveResumable(Method, double[], double, long, StepObserver)}
+     * saving checkpoints of the solve on the way and at the end.
+     *
+     * @param method       method of solving
+     * @param x0           initial state, x0[i] = x0_i, i = 0..n-1, x0[n] = t0
+     * @param dt           step
+     * @param iterations   number of steps
+     * @param observer     receives x(t0 + (k + 1) * dt), k = 0..iterations-1
+     * @param checkpointer saves the state every few steps, or null
+     * @return state to continue from with {@link #resume}
+     * @throws IllegalStateException if the checkpointer is closed
+     */
+    public SolverState solveResumable(Method method, double[] x0, double dt, long iterations, StepObserver observer,
+                                      Checkpointer checkpointer) {
+        if (checkpointer != null) {
+            checkpointer.ensureOpen();
         }
-        return result;
+        long start = System.nanoTime();
+        SolverStatistics statistics = new SolverStatistics();
+        Stepper stepper = createStepper(function, method, DEFAULT_ABSOLUTE_TOLERANCE, DEFAULT_RELATIVE_TOLERANCE,
+                true, statistics);
+        stepper.reset(x0);
+        double[] point = x0.clone();
+        integrate(stepper, method, x0[n], dt, 0, iterations, Double.POSITIVE_INFINITY, point, observer, checkpointer);
+        return finish(stepper, method, x0[n], dt, iterations, point, checkpointer, start);
     }
 
-    private double[][] implicitEulerMethod(final double[] x0, final double dt, final int iterations) {
-        double[][] result = new double[iterations][n];
-        final double[] x = Arrays.copyOf(x0, x0.length);
-        double[] dx = new double[n];
-        for (int i = 0; i < iterations; i++) {
-            for (int j = 0; j < n; j++) {
-                dx[j] = functions[j].calculate(x) * dt;
-            }
-            Function[] equations = new Function[n];
-            for (int jj = 0; jj < n; jj++) {
-                final int j = jj;
-                equations[j] = new Function() {
-                    private final double[] arg = new double[n + 1];
-
-                    @Override
-                    public double calculate(double[] dx) {
-                        for (int k = 0; k < n; k++) {
-                            arg[k] = x[k] + dx[k];
-                        }
-                        arg[n] = x[n];
-                        return dx[j] - functions[j].calculate(arg) * dt;
-                    }
-                };
-            }
-            EquationSystem equationSystem = new EquationSystem(equations);
-            dx = equationSystem.universalMethod(dx, EPS, MAX_ITERATIONS);
-            for (int j = 0; j < n; j++) {
-                x[j] += dx[j];
-                result[i][j] = x[j];
-            }
-            x[n] += dt;
+    /**
+     * Continues a solve of this system by more steps of the same grid.
+     *
+     * @param state      where a previous solve stopped
+     * @param iterations number of steps to add
+     * @param observer   receives x(t0 + (k + 1) * dt), k = state.getSteps()..state.getSteps()+iterations-1
+     * @return state after the added steps
+     */
+    public SolverState resume(SolverState state, long iterations, StepObserver observer) {
+        return resume(state, iterations, observer, null);
+    }
+
+    /**
+     * Continues a solve of this system from a checkpoint file.
+     *
+     * @param checkpoint   file written by a {@link Checkpointer}
+     * @param iterations   number of steps to add to the ones saved
+     * @param observer     receives the states of the added steps
+     * @param checkpointer saves the state every few steps, or null
+     * @return state after the added steps
+     * @throws IOException           if the checkpoint cannot be read
+     * @throws IllegalStateException if the checkpointer is closed
+     */
+    public SolverState resume(Path checkpoint, long iterations, StepObserver observer, Checkpointer checkpointer)
+            throws IOException {
+        return resume(Checkpointer.read(checkpoint), iterations, observer, checkpointer);
+    }
+
+    /**
+     * Continues a solve of this system by more steps of the same grid saving checkpoints on the way
+     * and at the end.
+     *
+     * @param state        where a previous solve stopped
+     * @param iterations   number of steps to add
+     * @param observer     receives x(t0 + (k + 1) * dt), k = state.getSteps()..state.getSteps()+iterations-1
+     * @param checkpointer saves the state every few steps, or null
+     * @return state after the added steps
+     * @throws IllegalStateException if the checkpointer is closed
+     */
+    public SolverState resume(SolverState state, long iterations, StepObserver observer, Checkpointer checkpointer) {
+        if (checkpointer != null) {
+            checkpointer.ensureOpen();
+        }
+        if (state.getDimension() != n) {
+            throw new IllegalArgumentException("State of a system of " + state.getDimension()
+                    + " equations, expected " + n);
+        }
+        if (iterations < 0) {
+            throw new IllegalArgumentException("Negative number of iterations " + iterations);
         }
-        return result;
+        long start = System.nanoTime();
+        SolverStatistics statistics = new SolverStatistics();
+        Stepper stepper = createStepper(function, state.getMethod(), state.getAbsoluteTolerance(),
+                state.getRelativeTolerance(), true, statistics);
+        StateBuffer snapshot = state.getSnapshot();
+        stepper.restore(snapshot);
+        if (!snapshot.isConsumed()) {
+            throw new IllegalArgumentException("State does not match the method " + state.getMethod());
+        }
+        double[] point = state.getState();
+        long steps = state.getSteps() + iterations;
+        integrate(stepper, state.getMethod(), state.getInitialTime(), state.getStep(), state.getSteps(), steps,
+                Double.POSITIVE_INFINITY, point, observer, checkpointer);
+        return finish(stepper, state.getMethod(), state.getInitialTime(), state.getStep(), steps, point,
+                checkpointer, start);
     }
 
-    private double[][] explicitRungeKuttaMethod(final double[] x0, final double dt, final int iterations) {
-        double[][] result = new double[iterations][n];
-        double[] x = Arrays.copyOf(x0, x0.length);
-        double[][] k = new double[4][n];
-        double[] tmp = Arrays.copyOf(x0, x0.length);
-        for (int i = 0; i < iterations; i++) {
-            for (int j = 0; j < n; j++) {
-                k[0][j] = functions[j].calculate(x);
-            }
-            for (int j = 0; j < n; j++) {
-                tmp[j] = x[j] + k[0][j] * dt / 2;
-            }
-            tmp[n] = x[n] + dt / 2;
-            for (int j = 0; j < n; j++) {
-                k[1][j] = functions[j].calculate(tmp);
-            }
-            for (int j = 0; j < n; j++) {
-                tmp[j] = x[j] + k[1][j] * dt / 2;
-            }
-            tmp[n] = x[n] + dt / 2;
-            for (int j = 0; j < n; j++) {
-                k[2][j] = functions[j].calculate(tmp);
-            }
-            for (int j = 0; j < n; j++) {
-                tmp[j] = x[j] + k[2][j] * dt;
-            }
-            tmp[n] = x[n] + dt;
-            for (int j = 0; j < n; j++) {
-                k[3][j] = functions[j].calculate(tmp);
-            }
-            for (int j = 0; j < n; j++) {
-                x[j] += dt * (k[0][j] + 2 * k[1][j] + 2 * k[2][j] + k[3][j]) / 6;
-                result[i][j] = x[j];
-            }
-            x[n] += dt;
+    private SolverState finish(Stepper stepper, Method method, double t0, double dt, long steps, double[] point,
+                               Checkpointer checkpointer, long start) {
+        SolverState state = snapshot(stepper, method, t0, dt, steps, point);
+        if (checkpointer != null) {
+            checkpointer.checkpoint(state);
         }
-        return result;
+        SolverStatistics statistics = stepper.statistics;
+        statistics.wallNanos = System.nanoTime() - start;
+        SolverMetrics.getInstance().record(statistics);
+        return state;
     }
 
-    private double[][] explicitAdamsMethod(final double[] x0, final double dt, final int iterations) {
-        if (iterations <= 3) {
-            return explicitRungeKuttaMethod(x0, dt, iterations);
-        } else {
-            double[][] result = new double[iterations][n];
-            double[][] tmp = new double[4][n + 1];
-            tmp[0] = Arrays.copyOf(x0, x0.length);
-            double[][] firstRes = explicitRungeKuttaMethod(x0, dt, 3);
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < n; j++) {
-                    result[i][j] = firstRes[i][j];
-                    tmp[i + 1][j] = firstRes[i][j];
+    /**
+     * @param point last grid state, copied
+     */
+    private static SolverState snapshot(Stepper stepper, Method method, double t0, double dt, long steps,
+                                        double[] point) {
+        StateBuffer snapshot = new StateBuffer();
+        stepper.save(snapshot);
+        return new SolverState(method, DEFAULT_ABSOLUTE_TOLERANCE, DEFAULT_RELATIVE_TOLERANCE, t0, dt, steps,
+                point.clone(), snapshot.toArray(), stepper.statistics);
+    }
+
+    /**
+     * Runs a fixed grid solve with the given stepper, see
+     * {@link #solve(Method, double[], double, long, StepObserver)}.
+     */
+    static void integrate(Stepper stepper, double[] x0, double dt, long iterations, StepObserver observer) {
+        stepper.reset(x0);
+        integrate(stepper, null, x0[stepper.n], dt, 0, iterations, x0[stepper.n] + iterations * dt,
+                new double[stepper.n + 1], observer, null);
+    }
+
+    /**
+     * Advances a stepper along the grid t0 + k * dt from the grid point from to the grid point to.
+     *
+     * @param method       method of the stepper, written to the checkpoints
+     * @param tEnd         time adaptive steppers must not step over
+     * @param point        output, the last grid state reported, kept if there is none
+     * @param checkpointer receives the state at every grid point divisible by its interval, or null
+     */
+    private static void integrate(Stepper stepper, Method method, double t0, double dt, long from, long to,
+                                  double tEnd, double[] point, StepObserver observer, Checkpointer checkpointer) {
+        int n = stepper.n;
+        /** grid point of the next checkpoint, multiples of the interval fall on the same steps after a restart **/
+        long next = checkpointer == null ? Long.MAX_VALUE
+                : (from / checkpointer.getInterval() + 1) * checkpointer.getInterval();
+        if (stepper instanceof AdaptiveStepper) {
+            AdaptiveStepper adaptiveStepper = (AdaptiveStepper) stepper;
+            long i = from;
+            while (i < to) {
+                /** a restored stepper may already stand past some grid points **/
+                if (t0 + (i + 1) * dt <= adaptiveStepper.getTime()) {
+                    point[n] = t0 + (i + 1) * dt;
+                    adaptiveStepper.interpolate(point[n], point);
+                    observer.step(point);
+                    i++;
+                    if (i == next && i < to) {
+                        checkpointer.checkpoint(snapshot(stepper, method, t0, dt, i, point));
+                        next += checkpointer.getInterval();
+                    }
+                } else {
+                    adaptiveStepper.attempt(tEnd);
                 }
-                tmp[i + 1][n] = tmp[0][n] + (i + 1) * dt;
             }
-            double[] cur = new double[n];
-            for (int i = 3; i < iterations; i++) {
-                for (int j = 0; j < n; j++) {
-                    cur[j] = tmp[3][j] + (55 * functions[j].calculate(tmp[3]) - 59 * functions[j].calculate(tmp[2])
-                            + 37 * functions[j].calculate(tmp[1]) - 9 * functions[j].calculate(tmp[0])) * dt / 24;
-                }
-                for (int q = 0; q < 3; q++) {
-                    System.arraycopy(tmp[q + 1], 0, tmp[q], 0, n + 1);
-                }
-                for (int j = 0; j < n; j++) {
-                    tmp[3][j] = cur[j];
-                    result[i][j] = cur[j];
+        } else {
+            for (long i = from; i < to; i++) {
+                stepper.step(dt);
+                stepper.statistics.acceptedSteps++;
+                observer.step(stepper.getState());
+                if (i + 1 == next && i + 1 < to) {
+                    checkpointer.checkpoint(snapshot(stepper, method, t0, dt, i + 1, stepper.getState()));
+                    next += checkpointer.getInterval();
                 }
-                tmp[3][n] += dt;
             }
-            return result;
+            System.arraycopy(stepper.getState(), 0, point, 0, n + 1);
+        }
+    }
+
+    /**
+     * Calculates the function x(t) with step size control up to the given time
+     *
+     * @param method            method of solving, must support error control
+     * @param x0                initial state, x0[i] = x0_i, i = 0..n-1, x0[n] = t0
+     * @param tEnd              end of integration
+     * @param absoluteTolerance absolute tolerance of the local error
+     * @param relativeTolerance relative tolerance of the local error
+     * @return accepted states with their times
+     */
+    public AdaptiveSolution solveAdaptive(Method method, double[] x0, double tEnd,
+                                          double absoluteTolerance, double relativeTolerance) {
+        ArrayObserver observer = new ArrayObserver(n + 1);
+        SolverStatistics statistics = solveAdaptive(method, x0, tEnd, absoluteTolerance, relativeTolerance, observer);
+        return new AdaptiveSolution(observer.getResult(), statistics);
+    }
+
+    /**
+     * Calculates the function x(t) with step size control up to the given time and passes every
+     * accepted state to the observer
+     *
+     * @param method            method of solving, must support error control
+     * @param x0                initial state, x0[i] = x0_i, i = 0..n-1, x0[n] = t0
+     * @param tEnd              end of integration
+     * @param absoluteTolerance absolute tolerance of the local error
+     * @param relativeTolerance relative tolerance of the local error
+     * @param observer          receives accepted states, x[n] = t
+     * @return work done by the solve
+     */
+    public SolverStatistics solveAdaptive(Method method, double[] x0, double tEnd, double absoluteTolerance,
+                                          double relativeTolerance, StepObserver observer) {
+        long start = System.nanoTime();
+        SolverStatistics statistics = new SolverStatistics();
+        Stepper stepper = createStepper(function, method, absoluteTolerance, relativeTolerance, false, statistics);
+        if (!(stepper instanceof AdaptiveStepper)) {
+            throw new IllegalArgumentException(method + " has no error control");
+        }
+        AdaptiveStepper adaptiveStepper = (AdaptiveStepper) stepper;
+        adaptiveStepper.reset(x0);
+        while (adaptiveStepper.getTime() < tEnd) {
+            if (adaptiveStepper.attempt(tEnd)) {
+                observer.step(adaptiveStepper.getState());
+            }
+        }
+        statistics.wallNanos = System.nanoTime() - start;
+        SolverMetrics.getInstance().record(statistics);
+        return statistics;
+    }
+
+    /**
+     * @param dense whether the continuous extension of adaptive methods is going to be used
+     */
+    static Stepper createStepper(VectorFunction function, Method method, double absoluteTolerance,
+                                 double relativeTolerance, boolean dense, SolverStatistics statistics) {
+        switch (method) {
+            case ExplicitEuler:
+                return new ExplicitEulerStepper(function, statistics);
+            case ImplicitEuler:
+                return new ImplicitEulerStepper(function, statistics);
+            case ExplicitRungeKutta:
+                return new RungeKuttaStepper(function, statistics);
+            case ExplicitAdamsBashfort:
+                return new AdamsStepper(function, false, statistics);
+            case AdamsBashforthMoulton:
+                return new AdamsStepper(function, true, statistics);
+            case DormandPrince:
+                return new DormandPrinceStepper(function, absoluteTolerance, relativeTolerance, dense, statistics);
+            case BDF:
+                return new BdfStepper(function, absoluteTolerance, relativeTolerance, statistics);
+            case ROS2:
+                return new RosenbrockStepper(function, RosenbrockStepper.ROS2, absoluteTolerance, relativeTolerance,
+                        statistics);
+            case ROS3:
+                return new RosenbrockStepper(function, RosenbrockStepper.ROS3, absoluteTolerance, relativeTolerance,
+                        statistics);
+            case Auto:
+                return new AutoStepper(function, absoluteTolerance, relativeTolerance, dense, statistics);
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
         }
     }
 
     public static enum Method {
-        ExplicitEuler {
+        ExplicitEuler(0) {
             @Override
             public String toString() {
                 return "Явный метод Эйлера";
             }
         },
-        ImplicitEuler {
+        ImplicitEuler(1) {
             @Override
             public String toString() {
                 return "Неявный метод Эйлера";
             }
         },
-        ExplicitRungeKutta {
+        ExplicitRungeKutta(2) {
             @Override
             public String toString() {
                 return "Явный метод Рунге-Кутты 4 порядка";
             }
         },
-        ExplicitAdamsBashfort {
+        ExplicitAdamsBashfort(3) {
             @Override
             public String toString() {
                 return "Явный метод Адамса-Бэшфорта 4 порядка";
             }
         },
+        AdamsBashforthMoulton(4) {
+            @Override
+            public String toString() {
+                return "Метод Адамса-Бэшфорта-Моултона 4 порядка (прогноз-коррекция)";
+            }
+        },
+        DormandPrince(5) {
+            @Override
+            public String toString() {
+                return "Метод Дормана-Принса 5(4) с автоматическим выбором шага";
+            }
+        },
+        BDF(6) {
+            @Override
+            public String toString() {
+                return "Формулы дифференцирования назад 1-5 порядка с автоматическим выбором шага и порядка";
+            }
+        },
+        ROS2(7) {
+            @Override
+            public String toString() {
+                return "Метод Розенброка ROS2 2(1) с автоматическим выбором шага";
+            }
+        },
+        ROS3(8) {
+            @Override
+            public String toString() {
+                return "Метод Розенброка ROS3 3(2) с автоматическим выбором шага";
+            }
+        },
+        Auto(9) {
+            @Override
+            public String toString() {
+                return "Автоматический выбор между методом Дормана-Принса и BDF по жёсткости системы";
+            }
+        };
+
+        /** written to files instead of the ordinal, so reordering the constants keeps old files readable **/
+        private final int code;
+
+        Method(int code) {
+            this.code = code;
+        }
+
+        /**
+         * @return stable code of the method in trajectory and checkpoint files
+         */
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * @param code code returned by {@link #getCode()}
+         * @return method with the given code, or null if there is none
+         */
+        public static Method forCode(int code) {
+            for (Method method : values()) {
+                if (method.code == code) {
+                    return method;
+                }
+            }
+            return null;
+        }
     }
 }
@@ -0,0 +1,219 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Embedded Runge-Kutta method of Dormand and Prince of order 5(4) with step size control.
+ * The last stage of an accepted step is the first stage of the next one (FSAL), so a step
+ * costs six evaluations of the right-hand side.
+ */
+class DormandPrinceStepper extends AdaptiveStepper {
+    private static final double C2 = 1.0 / 5, C3 = 3.0 / 10, C4 = 4.0 / 5, C5 = 8.0 / 9;
+    private static final double A21 = 1.0 / 5;
+    private static final double A31 = 3.0 / 40, A32 = 9.0 / 40;
+    private static final double A41 = 44.0 / 45, A42 = -56.0 / 15, A43 = 32.0 / 9;
+    private static final double A51 = 19372.0 / 6561, A52 = -25360.0 / 2187, A53 = 64448.0 / 6561,
+            A54 = -212.0 / 729;
+    private static final double A61 = 9017.0 / 3168, A62 = -355.0 / 33, A63 = 46732.0 / 5247,
+            A64 = 49.0 / 176, A65 = -5103.0 / 18656;
+    private static final double A71 = 35.0 / 384, A73 = 500.0 / 1113, A74 = 125.0 / 192,
+            A75 = -2187.0 / 6784, A76 = 11.0 / 84;
+    /** difference between the fifth and the fourth order weights **/
+    private static final double E1 = 71.0 / 57600, E3 = -71.0 / 16695, E4 = 71.0 / 1920,
+            E5 = -17253.0 / 339200, E6 = 22.0 / 525, E7 = -1.0 / 40;
+    /** continuous extension of order 4 (Hairer, Norsett, Wanner) **/
+    private static final double D1 = -12715105075.0 / 11282082432.0, D3 = 87487479700.0 / 32700410799.0,
+            D4 = -10690763975.0 / 1880347072.0, D5 = 701980252875.0 / 199316789632.0,
+            D6 = -1453857185.0 / 822651844.0, D7 = 69997945.0 / 29380423.0;
+    private static final double SAFETY = 0.9;
+    private static final double MIN_FACTOR = 0.2;
+    private static final double MAX_FACTOR = 10;
+
+    private final boolean dense;
+    private final double[] xNew;
+    private final double[] tmp;
+    private final double[][] k;
+    private final double[][] cont;
+    private double h;
+    private double tOld;
+    private double hOld;
+    private boolean rejected = false;
+
+    /**
+     * @param absoluteTolerance absolute tolerance of the local error
+     * @param relativeTolerance relative tolerance of the local error
+     * @param dense             whether {@link #interpolate} is going to be used
+     */
+    DormandPrinceStepper(VectorFunction function, double absoluteTolerance, double relativeTolerance,
+                         boolean dense, SolverStatistics statistics) {
+        super(function, absoluteTolerance, relativeTolerance, statistics);
+        this.dense = dense;
+        xNew = new double[n + 1];
+        tmp = new double[n + 1];
+        k = new double[7][n];
+        cont = dense ? new double[5][n] : null;
+    }
+
+    /**
+     * Starts integration from x0 and guesses the initial step.
+     */
+    @Override
+    void reset(double[] x0) {
+        super.reset(x0);
+        evaluate(x, k[0]);
+        rejected = false;
+        h = initialStep(k[0], 4, tmp, k[1]);
+    }
+
+    /**
+     * Writes the first stage of the next step, the step size and the continuous extension of the
+     * last step if it is kept.
+     */
+    @Override
+    void save(StateBuffer buffer) {
+        super.save(buffer);
+        buffer.put(k[0]);
+        buffer.put(h);
+        buffer.put(rejected);
+        if (dense) {
+            buffer.put(tOld);
+            buffer.put(hOld);
+            for (double[] row : cont) {
+                buffer.put(row);
+            }
+        }
+    }
+
+    @Override
+    void restore(StateBuffer buffer) {
+        super.restore(buffer);
+        buffer.get(k[0]);
+        h = buffer.getDouble();
+        rejected = buffer.getBoolean();
+        if (dense) {
+            tOld = buffer.getDouble();
+            hOld = buffer.getDouble();
+            for (double[] row : cont) {
+                buffer.get(row);
+            }
+        }
+    }
+
+    @Override
+    void step(double dt) {
+        trial(dt, x[n] + dt);
+        accept(dt);
+    }
+
+    @Override
+    boolean attempt(double tEnd) {
+        double t = x[n];
+        double hStep = h;
+        boolean last = false;
+        if (t + hStep >= tEnd) {
+            hStep = tEnd - t;
+            last = true;
+        }
+        if (hStep <= 16 * Math.ulp(t)) {
+            throw new IllegalStateException("Step size underflow at t = " + t);
+        }
+        double error = trial(hStep, last ? tEnd : t + hStep);
+        if (error <= 1) {
+            statistics.acceptedSteps++;
+            accept(hStep);
+            double factor = error == 0 ? MAX_FACTOR
+                    : Math.min(MAX_FACTOR, Math.max(MIN_FACTOR, SAFETY * Math.pow(error, -0.2)));
+            if (rejected) {
+                factor = Math.min(1, factor);
+            }
+            h = hStep * factor;
+            rejected = false;
+            return true;
+        } else {
+            statistics.rejectedSteps++;
+            h = hStep * Math.max(MIN_FACTOR, SAFETY * Math.pow(error, -0.2));
+            rejected = true;
+            return false;
+        }
+    }
+
+    /**
+     * Computes the stages and the new state without changing x.
+     *
+     * @return norm of the local error estimate relative to the tolerances
+     */
+    private double trial(double hStep, double tNew) {
+        double t = x[n];
+        double[] k1 = k[0], k2 = k[1], k3 = k[2], k4 = k[3], k5 = k[4], k6 = k[5], k7 = k[6];
+        for (int j = 0; j < n; j++) {
+            tmp[j] = x[j] + hStep * A21 * k1[j];
+        }
+        tmp[n] = t + C2 * hStep;
+        evaluate(tmp, k2);
+        for (int j = 0; j < n; j++) {
+            tmp[j] = x[j] + hStep * (A31 * k1[j] + A32 * k2[j]);
+        }
+        tmp[n] = t + C3 * hStep;
+        evaluate(tmp, k3);
+        for (int j = 0; j < n; j++) {
+            tmp[j] = x[j] + hStep * (A41 * k1[j] + A42 * k2[j] + A43 * k3[j]);
+        }
+        tmp[n] = t + C4 * hStep;
+        evaluate(tmp, k4);
+        for (int j = 0; j < n; j++) {
+            tmp[j] = x[j] + hStep * (A51 * k1[j] + A52 * k2[j] + A53 * k3[j] + A54 * k4[j]);
+        }
+        tmp[n] = t + C5 * hStep;
+        evaluate(tmp, k5);
+        for (int j = 0; j < n; j++) {
+            tmp[j] = x[j] + hStep * (A61 * k1[j] + A62 * k2[j] + A63 * k3[j] + A64 * k4[j] + A65 * k5[j]);
+        }
+        tmp[n] = t + hStep;
+        evaluate(tmp, k6);
+        for (int j = 0; j < n; j++) {
+            xNew[j] = x[j] + hStep * (A71 * k1[j] + A73 * k3[j] + A74 * k4[j] + A75 * k5[j] + A76 * k6[j]);
+        }
+        xNew[n] = tNew;
+        evaluate(xNew, k7);
+
+        double error = 0;
+        for (int j = 0; j < n; j++) {
+            double e = hStep * (E1 * k1[j] + E3 * k3[j] + E4 * k4[j] + E5 * k5[j] + E6 * k6[j] + E7 * k7[j]);
+            double scale = absoluteTolerance + relativeTolerance * Math.max(Math.abs(x[j]), Math.abs(xNew[j]));
+            error += (e / scale) * (e / scale);
+        }
+        return Math.sqrt(error / n);
+    }
+
+    /**
+     * Moves to the state computed by the last trial, its last stage becomes the first one.
+     */
+    private void accept(double hStep) {
+        double[] k1 = k[0], k3 = k[2], k4 = k[3], k5 = k[4], k6 = k[5], k7 = k[6];
+        if (dense) {
+            for (int j = 0; j < n; j++) {
+                double difference = xNew[j] - x[j];
+                double b = hStep * k1[j] - difference;
+                cont[0][j] = x[j];
+                cont[1][j] = difference;
+                cont[2][j] = b;
+                cont[3][j] = difference - hStep * k7[j] - b;
+                cont[4][j] = hStep * (D1 * k1[j] + D3 * k3[j] + D4 * k4[j] + D5 * k5[j] + D6 * k6[j]
+                        + D7 * k7[j]);
+            }
+            tOld = x[n];
+            hOld = hStep;
+        }
+        System.arraycopy(xNew, 0, x, 0, n + 1);
+        k[0] = k7;
+        k[6] = k1;
+    }
+
+    @Override
+    void interpolate(double t, double[] result) {
+        double theta = (t - tOld) / hOld;
+        double theta1 = 1 - theta;
+        for (int j = 0; j < n; j++) {
+            result[j] = cont[0][j] + theta * (cont[1][j] + theta1 * (cont[2][j] + theta * (cont[3][j]
+                    + theta1 * cont[4][j])));
+        }
+    }
+}
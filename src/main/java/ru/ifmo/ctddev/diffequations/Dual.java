@@ -0,0 +1,202 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.Arrays;
+
+/**
+ * Dual number for forward-mode automatic differentiation: a value together with its gradient
+ * by the seeded variables. Functions written once in terms of dual numbers give both the value
+ * and the exact derivatives in a single pass, see {@link DualFunction} and {@link DualVectorFunction}.
+ * <p>
+ * Constants carry an empty gradient, which is read as zeros of any length.
+ */
+public final class Dual {
+    private static final double[] NONE = new double[0];
+    private final double value;
+    private final double[] gradient;
+
+    private Dual(double value, double[] gradient) {
+        this.value = value;
+        this.gradient = gradient;
+    }
+
+    /**
+     * @param value value
+     * @return number with zero derivatives
+     */
+    public static Dual constant(double value) {
+        return new Dual(value, NONE);
+    }
+
+    /**
+     * @param value value
+     * @param index number of the variable
+     * @param size  number of variables
+     * @return variable with the unit derivative by itself
+     */
+    public static Dual variable(double value, int index, int size) {
+        double[] gradient = new double[size];
+        gradient[index] = 1;
+        return new Dual(value, gradient);
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @param i number of the variable
+     * @return derivative by the i-th variable
+     */
+    public double getDerivative(int i) {
+        return i < gradient.length ? gradient[i] : 0;
+    }
+
+    /**
+     * Copies derivatives by the first variables.
+     *
+     * @param result output, result[i] = derivative by the i-th variable
+     * @param length number of variables to copy
+     */
+    public void copyGradient(double[] result, int length) {
+        int known = Math.min(length, gradient.length);
+        System.arraycopy(gradient, 0, result, 0, known);
+        for (int i = known; i < length; i++) {
+            result[i] = 0;
+        }
+    }
+
+    public Dual add(Dual other) {
+        return new Dual(value + other.value, combine(1, other, 1));
+    }
+
+    public Dual add(double other) {
+        return new Dual(value + other, gradient);
+    }
+
+    public Dual subtract(Dual other) {
+        return new Dual(value - other.value, combine(1, other, -1));
+    }
+
+    public Dual subtract(double other) {
+        return new Dual(value - other, gradient);
+    }
+
+    public Dual multiply(Dual other) {
+        return new Dual(value * other.value, combine(other.value, other, value));
+    }
+
+    public Dual multiply(double other) {
+        return chain(value * other, other);
+    }
+
+    public Dual divide(Dual other) {
+        double inverse = 1 / other.value;
+        return new Dual(value * inverse, combine(inverse, other, -value * inverse * inverse));
+    }
+
+    public Dual divide(double other) {
+        return chain(value / other, 1 / other);
+    }
+
+    public Dual negate() {
+        return chain(-value, -1);
+    }
+
+    public Dual pow(double power) {
+        return chain(Math.pow(value, power), power * Math.pow(value, power - 1));
+    }
+
+    public Dual sqrt() {
+        double root = Math.sqrt(value);
+        return chain(root, 0.5 / root);
+    }
+
+    public Dual exp() {
+        double exp = Math.exp(value);
+        return chain(exp, exp);
+    }
+
+    public Dual log() {
+        return chain(Math.log(value), 1 / value);
+    }
+
+    public Dual sin() {
+        return chain(Math.sin(value), Math.cos(value));
+    }
+
+    public Dual cos() {
+        return chain(Math.cos(value), -Math.sin(value));
+    }
+
+    public Dual tan() {
+        double cos = Math.cos(value);
+        return chain(Math.tan(value), 1 / (cos * cos));
+    }
+
+    public Dual atan() {
+        return chain(Math.atan(value), 1 / (1 + value * value));
+    }
+
+    public Dual tanh() {
+        double tanh = Math.tanh(value);
+        return chain(tanh, 1 - tanh * tanh);
+    }
+
+    public Dual abs() {
+        return value < 0 ? negate() : this;
+    }
+
+    /**
+     * @param value      value of g(this)
+     * @param derivative g'(this)
+     * @return g(this) with the gradient by the chain rule
+     */
+    private Dual chain(double value, double derivative) {
+        if (gradient.length == 0) {
+            return new Dual(value, NONE);
+        }
+        double[] result = new double[gradient.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = derivative * gradient[i];
+        }
+        return new Dual(value, result);
+    }
+
+    /**
+     * @return a * this.gradient + b * other.gradient
+     */
+    private double[] combine(double a, Dual other, double b) {
+        double[] g = gradient, h = other.gradient;
+        if (h.length == 0) {
+            return a == 1 ? g : scale(g, a);
+        }
+        if (g.length == 0) {
+            return b == 1 ? h : scale(h, b);
+        }
+        double[] result = new double[Math.max(g.length, h.length)];
+        int common = Math.min(g.length, h.length);
+        for (int i = 0; i < common; i++) {
+            result[i] = a * g[i] + b * h[i];
+        }
+        for (int i = common; i < g.length; i++) {
+            result[i] = a * g[i];
+        }
+        for (int i = common; i < h.length; i++) {
+            result[i] = b * h[i];
+        }
+        return result;
+    }
+
+    private static double[] scale(double[] g, double a) {
+        double[] result = new double[g.length];
+        for (int i = 0; i < g.length; i++) {
+            result[i] = a * g[i];
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return value + " " + Arrays.toString(gradient);
+    }
+}
@@ -0,0 +1,41 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Function written in dual numbers, its derivatives are exact and come from the same pass as
+ * the value.
+ */
+public abstract class DualFunction extends Function {
+
+    /**
+     * @param x argument
+     * @return f(x) with the derivatives by the seeded components of x
+     */
+    public abstract Dual calculate(Dual[] x);
+
+    @Override
+    public double calculate(double[] x) {
+        Dual[] arg = new Dual[x.length];
+        for (int i = 0; i < x.length; i++) {
+            arg[i] = Dual.constant(x[i]);
+        }
+        return calculate(arg).getValue();
+    }
+
+    @Override
+    public double[] totalDerivative(double[] x) {
+        double[] res = new double[x.length];
+        calculate(x, res);
+        return res;
+    }
+
+    @Override
+    public double calculate(double[] x, double[] derivative) {
+        Dual[] arg = new Dual[x.length];
+        for (int i = 0; i < x.length; i++) {
+            arg[i] = Dual.variable(x[i], i, x.length);
+        }
+        Dual value = calculate(arg);
+        value.copyGradient(derivative, x.length);
+        return value.getValue();
+    }
+}
@@ -0,0 +1,33 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Right-hand side with its Jacobian matrix written in dual numbers, the matrix is exact and takes
+ * one pass. The integrators call the plain {@link #calculate(double[], double[])} on every stage,
+ * so it stays a separate method free of allocations, the dual numbers are used for the Jacobian
+ * only.
+ */
+public abstract class DualVectorFunction extends VectorFunction {
+
+    /**
+     * @param x      state, x[i] = x_i, i = 0..n-1, x[n] = t
+     * @param result output, result[i] = dx_i/dt(x, t), i = 0..n-1
+     */
+    public abstract void calculate(Dual[] x, Dual[] result);
+
+    @Override
+    public int jacobian(double[] x, double[][] result) {
+        int n = getDimension();
+        Dual[] arg = new Dual[n + 1];
+        for (int i = 0; i < n; i++) {
+            arg[i] = Dual.variable(x[i], i, n);
+        }
+        arg[n] = Dual.constant(x[n]);
+        Dual[] value = new Dual[n];
+        calculate(arg, value);
+        for (int i = 0; i < n; i++) {
+            value[i].copyGradient(result[i], n);
+        }
+        /** one pass in dual numbers **/
+        return 1;
+    }
+}
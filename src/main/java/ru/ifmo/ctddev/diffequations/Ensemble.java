@@ -0,0 +1,135 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Integrates one parametric system for a batch of initial states and parameter sets, the members
+ * are spread over the threads of a fork/join pool. Every thread takes a worker with its own copy
+ * of the function and its own stepper, and reuses them for all members it runs. A member starts
+ * from a freshly reset stepper, so its result does not depend on the scheduling.
+ */
+public class Ensemble {
+    private final ParametricVectorFunction function;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates an ensemble running on the common pool.
+     *
+     * @param function right-hand side, its parameters are replaced by every member's ones
+     */
+    public Ensemble(ParametricVectorFunction function) {
+        this(function, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param function right-hand side, its parameters are replaced by every member's ones
+     * @param pool     pool to run the members
+     */
+    public Ensemble(ParametricVectorFunction function, ForkJoinPool pool) {
+        this.function = function;
+        this.pool = pool;
+    }
+
+    /**
+     * Solves every member on the same grid, see
+     * {@link DifferentialEquationSystem#solve(DifferentialEquationSystem.Method, double[], double, long, StepObserver)}.
+     *
+     * @param method     method of solving
+     * @param x0         initial states, x0[m][n] = t0 of member m
+     * @param parameters parameters of the members, or null to keep the parameters of the function
+     * @param dt         step
+     * @param iterations number of steps
+     * @param observers  gives every member its own observer, called from the thread running the member
+     * @return work done by all members together
+     */
+    public SolverStatistics solve(final DifferentialEquationSystem.Method method, final double[][] x0,
+                                  final double[][] parameters, final double dt, final long iterations,
+                                  final ObserverFactory observers) {
+        if (parameters != null && parameters.length != x0.length) {
+            throw new IllegalArgumentException(x0.length + " initial states but " + parameters.length + " parameter sets");
+        }
+        long start = System.nanoTime();
+        final ConcurrentLinkedQueue<Worker> workers = new ConcurrentLinkedQueue<>();
+        Parallel.forRange(pool, 0, x0.length, 1, new Parallel.Range() {
+            @Override
+            public void run(int from, int to) {
+                Worker worker = workers.poll();
+                if (worker == null) {
+                    worker = new Worker(method);
+                }
+                try {
+                    for (int m = from; m < to; m++) {
+                        if (parameters != null) {
+                            worker.function.setParameters(parameters[m]);
+                        }
+                        DifferentialEquationSystem.integrate(worker.stepper, x0[m], dt, iterations, observers.create(m));
+                    }
+                } finally {
+                    workers.add(worker);
+                }
+            }
+        });
+        SolverStatistics statistics = new SolverStatistics();
+        for (Worker worker : workers) {
+            statistics.add(worker.statistics);
+        }
+        statistics.wallNanos = System.nanoTime() - start;
+        SolverMetrics.getInstance().record(statistics);
+        return statistics;
+    }
+
+    /**
+     * Solves every member on the same grid keeping only the final states.
+     *
+     * @param method     method of solving
+     * @param x0         initial states, x0[m][n] = t0 of member m
+     * @param parameters parameters of the members, or null to keep the parameters of the function
+     * @param dt         step
+     * @param iterations number of steps
+     * @return final states, res[m][n] = t of member m
+     */
+    public double[][] solveFinal(DifferentialEquationSystem.Method method, double[][] x0, double[][] parameters,
+                                 double dt, long iterations) {
+        final LastStateObserver[] last = new LastStateObserver[x0.length];
+        for (int m = 0; m < last.length; m++) {
+            last[m] = new LastStateObserver();
+        }
+        solve(method, x0, parameters, dt, iterations, new ObserverFactory() {
+            @Override
+            public StepObserver create(int member) {
+                return last[member];
+            }
+        });
+        double[][] result = new double[x0.length][];
+        for (int m = 0; m < result.length; m++) {
+            result[m] = last[m].getState() != null ? last[m].getState() : x0[m].clone();
+        }
+        return result;
+    }
+
+    /**
+     * Gives every member of an ensemble its own output.
+     */
+    public interface ObserverFactory {
+        /**
+         * @param member index of the member
+         * @return observer receiving the states of the member
+         */
+        StepObserver create(int member);
+    }
+
+    private class Worker {
+        private final ParametricVectorFunction function;
+        private final SolverStatistics statistics;
+        private final Stepper stepper;
+
+        Worker(DifferentialEquationSystem.Method method) {
+            function = Ensemble.this.function.copy();
+            statistics = new SolverStatistics();
+            stepper = DifferentialEquationSystem.createStepper(function, method,
+                    DifferentialEquationSystem.DEFAULT_ABSOLUTE_TOLERANCE,
+                    DifferentialEquationSystem.DEFAULT_RELATIVE_TOLERANCE, true, statistics);
+        }
+    }
+}
@@ -102,14 +102,25 @@ public class EquationSystem {
      * @return dx
      */
     public double[] linearDerivativeSolution(double[] x) {
+        return linearDerivativeSolution(x, new SolverStatistics());
+    }
+
+    private double[] linearDerivativeSolution(double[] x, SolverStatistics statistics) {
+        long start = System.nanoTime();
         double[] b = new double[n];
         double[][] matrix = new double[n][];
         for (int i = 0; i < n; i++) {
-            b[i] = -functions[i].calculate(x);
-            matrix[i] = functions[i].totalDerivative(x);
+            matrix[i] = new double[x.length];
+            b[i] = -functions[i].calculate(x, matrix[i]);
         }
-        Matrix m = new Matrix(matrix);
-        return m.gaussMethod(b);
+        long factorization = System.nanoTime();
+        statistics.jacobianNanos += factorization - start;
+        statistics.jacobianEvaluations++;
+        statistics.evaluations++;
+        new LUDecomposition(matrix).solveInPlace(b);
+        statistics.factorizationNanos += System.nanoTime() - factorization;
+        statistics.factorizations++;
+        return b;
     }
 
     /**
@@ -120,21 +131,31 @@ public class EquationSystem {
      * @return t| x(t) = x + t * direction is local discrepancy minimum
      */
     public double localMinimum(final double[] x, final double[] d) {
+        return localMinimum(x, d, new SolverStatistics());
+    }
+
+    private double localMinimum(final double[] x, final double[] d, final SolverStatistics statistics) {
+        long start = System.nanoTime();
         double cur = discrepancy(x);
         cur = Math.min(cur, discrepancy(x, d, 1));
+        statistics.lineSearchEvaluations += 2;
         double r = 1, dr;
         do {
             r *= 2;
             dr = discrepancy(x, d, r);
+            statistics.lineSearchEvaluations++;
             cur = Math.min(cur, dr);
         } while (dr <= cur);
         Function f = new Function() {
             @Override
             public double calculate(double[] arg) {
+                statistics.lineSearchEvaluations++;
                 return discrepancy(x, d, arg[0]);
             }
         };
-        return gradientDescent(f, 1, 0.5, GRADIENT_DESCENT_PRECISION);
+        double t = gradientDescent(f, 1, 0.5, GRADIENT_DESCENT_PRECISION);
+        statistics.lineSearchNanos += System.nanoTime() - start;
+        return t;
     }
 
     /**
@@ -143,15 +164,32 @@ public class EquationSystem {
      * @return argument x, discrepancy(x) < eps
      */
     public double[] universalMethod(double[] x0, double eps, long maxIterations) {
+        return universalMethod(x0, eps, maxIterations, new SolverStatistics());
+    }
+
+    /**
+     * @param eps           precision of finding x
+     * @param maxIterations maximum iterations count
+     * @param statistics    receives the work of the solve: Newton iterations, Jacobian evaluations
+     *                      and factorizations, line search evaluations and times
+     * @return argument x, discrepancy(x) < eps
+     */
+    public double[] universalMethod(double[] x0, double eps, long maxIterations, SolverStatistics statistics) {
+        long start = System.nanoTime();
+        SolverStatistics work = new SolverStatistics();
         double[] x = Arrays.copyOf(x0, x0.length);
         for (int q = 0; q < maxIterations; q++) {
-            double[] dx = linearDerivativeSolution(x);
-            double k = localMinimum(x, dx);
+            work.newtonIterations++;
+            double[] dx = linearDerivativeSolution(x, work);
+            double k = localMinimum(x, dx, work);
             for (int i = 0; i < n; i++) {
                 x[i] += k * dx[i];
             }
             if (getNorm(dx) < eps) break;
         }
+        work.wallNanos = System.nanoTime() - start;
+        SolverMetrics.getInstance().record(work);
+        statistics.add(work);
         return x;
     }
 }
@@ -0,0 +1,19 @@
+package ru.ifmo.ctddev.diffequations;
+
+class ExplicitEulerStepper extends Stepper {
+    private final double[] dx;
+
+    ExplicitEulerStepper(VectorFunction function, SolverStatistics statistics) {
+        super(function, statistics);
+        dx = new double[n];
+    }
+
+    @Override
+    void step(double dt) {
+        evaluate(x, dx);
+        for (int j = 0; j < n; j++) {
+            x[j] += dx[j] * dt;
+        }
+        x[n] += dt;
+    }
+}
@@ -0,0 +1,255 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles right-hand sides written as text, e.g. {@code sigma * (y - x)}, into JVM classes
+ * implementing {@link VectorFunction} or {@link Function}, so they run as fast as hand-written ones.
+ * <p>
+ * Expressions use + - * / ^, parentheses, the functions of java.lang.Math of one or two arguments
+ * (sin, exp, pow, atan2, ...), numbers, pi and e. Names refer to the variables x_0..x_{n-1},
+ * the time t and the parameters. Parameters are substituted as constants and everything that
+ * depends only on constants is computed once at compilation. Equal subexpressions, also in
+ * different components, are computed once per call.
+ * <p>
+ * Every compilation defines a class in its own class loader, so functions that are not used any
+ * more are unloaded. The JIT compiler skips methods over 8000 bytes of bytecode, which limits
+ * a system to several hundred operations.
+ */
+public class ExpressionCompiler {
+    private static final String PACKAGE = "ru/ifmo/ctddev/diffequations/generated/";
+    private static final String MATH = "java/lang/Math";
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private final List<String> variables;
+    private final Map<String, Double> parameters = new HashMap<>();
+
+    /**
+     * Creates a compiler for the variables x0, x1, ... of a system of size n.
+     *
+     * @param n number of variables
+     */
+    public ExpressionCompiler(int n) {
+        this(defaultNames(n));
+    }
+
+    /**
+     * @param variables names of x_0..x_{n-1}
+     */
+    public ExpressionCompiler(String... variables) {
+        this.variables = Arrays.asList(variables.clone());
+    }
+
+    private static String[] defaultNames(int n) {
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = "x" + i;
+        }
+        return names;
+    }
+
+    /**
+     * Sets the value substituted for a name in the expressions compiled afterwards.
+     *
+     * @param name  parameter name
+     * @param value parameter value
+     * @return this compiler
+     */
+    public ExpressionCompiler setParameter(String name, double value) {
+        parameters.put(name, value);
+        return this;
+    }
+
+    /**
+     * @param expressions dx_i/dt for every variable
+     * @return compiled right-hand side
+     * @throws IllegalArgumentException if an expression is malformed or the system is too large for
+     *                                  one class file method
+     */
+    public VectorFunction compile(String... expressions) {
+        if (expressions.length != variables.size()) {
+            throw new IllegalArgumentException(expressions.length + " expressions for " + variables.size() + " variables");
+        }
+        ExpressionNode[] roots = parse(expressions);
+        String name = PACKAGE + "CompiledVectorFunction" + COUNTER.incrementAndGet();
+        String superClass = "ru/ifmo/ctddev/diffequations/VectorFunction";
+        ClassFileWriter writer = new ClassFileWriter(name, superClass);
+        constructor(writer, superClass);
+
+        ClassFileWriter.Code dimension = new ClassFileWriter.Code(1);
+        dimension.pushInt(writer, roots.length).op(ClassFileWriter.IRETURN, -1);
+        writer.method("getDimension", "()I", dimension);
+
+        /** locals: this, x, result, then the common subexpressions **/
+        Emitter emitter = new Emitter(writer, 3, roots);
+        for (int i = 0; i < roots.length; i++) {
+            emitter.code.op(ClassFileWriter.ALOAD_2, 1).pushInt(writer, i);
+            emitter.emit(roots[i]);
+            emitter.code.op(ClassFileWriter.DASTORE, -4);
+        }
+        emitter.code.op(ClassFileWriter.RETURN, 0);
+        writer.method("calculate", "([D[D)V", emitter.code);
+        return (VectorFunction) load(name, writer.toByteArray());
+    }
+
+    /**
+     * @param expression function of the variables and the time, x[n] = t
+     * @return compiled function
+     * @throws IllegalArgumentException if the expression is malformed or too large for one class file
+     *                                  method
+     */
+    public Function compileFunction(String expression) {
+        ExpressionNode root = parse(expression)[0];
+        String name = PACKAGE + "CompiledFunction" + COUNTER.incrementAndGet();
+        String superClass = "ru/ifmo/ctddev/diffequations/Function";
+        ClassFileWriter writer = new ClassFileWriter(name, superClass);
+        constructor(writer, superClass);
+
+        /** locals: this, x, then the common subexpressions **/
+        Emitter emitter = new Emitter(writer, 2, root);
+        emitter.emit(root);
+        emitter.code.op(ClassFileWriter.DRETURN, -2);
+        writer.method("calculate", "([D)D", emitter.code);
+        return (Function) load(name, writer.toByteArray());
+    }
+
+    private ExpressionNode[] parse(String... expressions) {
+        ExpressionParser parser = new ExpressionParser(new ExpressionNode.Table(), variables, parameters);
+        ExpressionNode[] roots = new ExpressionNode[expressions.length];
+        for (int i = 0; i < expressions.length; i++) {
+            roots[i] = parser.parse(expressions[i]);
+        }
+        return roots;
+    }
+
+    private static void constructor(ClassFileWriter writer, String superClass) {
+        ClassFileWriter.Code code = new ClassFileWriter.Code(1);
+        code.op(ClassFileWriter.ALOAD_0, 1)
+                .op(ClassFileWriter.INVOKESPECIAL, writer.methodEntry(superClass, "<init>", "()V"), 2, -1)
+                .op(ClassFileWriter.RETURN, 0);
+        writer.method("<init>", "()V", code);
+    }
+
+    private static Object load(String name, byte[] bytes) {
+        try {
+            return new Loader().define(name.replace('/', '.'), bytes).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load generated class " + name, e);
+        }
+    }
+
+    /**
+     * Writes the code of expressions, a node used more than once is computed at its first use,
+     * kept in a local variable and loaded from it afterwards.
+     */
+    private static class Emitter {
+        private final ClassFileWriter writer;
+        private final ClassFileWriter.Code code;
+        private final Map<ExpressionNode, Integer> uses = new HashMap<>();
+        private final Map<ExpressionNode, Integer> slots = new HashMap<>();
+        private int nextSlot;
+
+        Emitter(ClassFileWriter writer, int firstSlot, ExpressionNode... roots) {
+            this.writer = writer;
+            this.code = new ClassFileWriter.Code(firstSlot);
+            this.nextSlot = firstSlot;
+            List<ExpressionNode> stack = new ArrayList<>();
+            for (ExpressionNode root : roots) {
+                if (use(root)) {
+                    stack.add(root);
+                }
+            }
+            /** every node is expanded once, so uses count its distinct parents and roots **/
+            while (!stack.isEmpty()) {
+                ExpressionNode node = stack.remove(stack.size() - 1);
+                for (ExpressionNode argument : node.arguments) {
+                    if (use(argument)) {
+                        stack.add(argument);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return whether the node is seen for the first time
+         */
+        private boolean use(ExpressionNode node) {
+            Integer count = uses.get(node);
+            uses.put(node, count == null ? 1 : count + 1);
+            return count == null;
+        }
+
+        void emit(ExpressionNode node) {
+            Integer slot = slots.get(node);
+            if (slot != null) {
+                code.local(ClassFileWriter.DLOAD, slot, 2);
+                return;
+            }
+            switch (node.kind) {
+                case ExpressionNode.CONSTANT:
+                    if (Double.doubleToRawLongBits(node.value) == 0) {
+                        code.op(ClassFileWriter.DCONST_0, 2);
+                    } else if (node.value == 1) {
+                        code.op(ClassFileWriter.DCONST_1, 2);
+                    } else {
+                        code.op(ClassFileWriter.LDC2_W, writer.doubleEntry(node.value), 2, 2);
+                    }
+                    return;
+                case ExpressionNode.VARIABLE:
+                    code.op(ClassFileWriter.ALOAD_1, 1).pushInt(writer, node.index).op(ClassFileWriter.DALOAD, 0);
+                    return;
+                case ExpressionNode.NEGATE:
+                    emit(node.arguments[0]);
+                    code.op(ClassFileWriter.DNEG, 0);
+                    break;
+                case ExpressionNode.ADD:
+                    binary(node, ClassFileWriter.DADD);
+                    break;
+                case ExpressionNode.SUBTRACT:
+                    binary(node, ClassFileWriter.DSUB);
+                    break;
+                case ExpressionNode.MULTIPLY:
+                    binary(node, ClassFileWriter.DMUL);
+                    break;
+                case ExpressionNode.DIVIDE:
+                    binary(node, ClassFileWriter.DDIV);
+                    break;
+                default:
+                    for (ExpressionNode argument : node.arguments) {
+                        emit(argument);
+                    }
+                    String descriptor = node.arguments.length == 1 ? "(D)D" : "(DD)D";
+                    code.op(ClassFileWriter.INVOKESTATIC, writer.methodEntry(MATH, node.name, descriptor), 2,
+                            2 - 2 * node.arguments.length);
+            }
+            if (uses.get(node) > 1) {
+                slots.put(node, nextSlot);
+                code.op(ClassFileWriter.DUP2, 2).local(ClassFileWriter.DSTORE, nextSlot, -2);
+                nextSlot += 2;
+            }
+        }
+
+        private void binary(ExpressionNode node, int opcode) {
+            emit(node.arguments[0]);
+            emit(node.arguments[1]);
+            code.op(opcode, -2);
+        }
+    }
+
+    /**
+     * Defines one generated class.
+     */
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(ExpressionCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Node of a parsed expression. Nodes are created only by a {@link Table}, which returns the
+ * existing node for a structurally equal one, so equal subexpressions are the same object and
+ * the expressions of a system form one graph.
+ */
+final class ExpressionNode {
+    static final int CONSTANT = 0;
+    static final int VARIABLE = 1;
+    static final int NEGATE = 2;
+    static final int ADD = 3;
+    static final int SUBTRACT = 4;
+    static final int MULTIPLY = 5;
+    static final int DIVIDE = 6;
+    /** static method of java.lang.Math with double arguments **/
+    static final int CALL = 7;
+
+    final int kind;
+    final double value;
+    /** index in x for variables **/
+    final int index;
+    /** method name for calls **/
+    final String name;
+    final ExpressionNode[] arguments;
+    /** creation order, orders the operands of commutative operations **/
+    private final int id;
+
+    private ExpressionNode(int kind, double value, int index, String name, ExpressionNode[] arguments, int id) {
+        this.kind = kind;
+        this.value = value;
+        this.index = index;
+        this.name = name;
+        this.arguments = arguments;
+        this.id = id;
+    }
+
+    boolean isConstant() {
+        return kind == CONSTANT;
+    }
+
+    boolean isLeaf() {
+        return kind == CONSTANT || kind == VARIABLE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ExpressionNode)) {
+            return false;
+        }
+        ExpressionNode other = (ExpressionNode) o;
+        if (kind != other.kind || index != other.index
+                || Double.doubleToLongBits(value) != Double.doubleToLongBits(other.value)
+                || (name == null ? other.name != null : !name.equals(other.name))
+                || arguments.length != other.arguments.length) {
+            return false;
+        }
+        /** arguments are interned already, identity is enough **/
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i] != other.arguments[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 31 * kind + index;
+        result = 31 * result + Double.hashCode(value);
+        result = 31 * result + (name == null ? 0 : name.hashCode());
+        for (ExpressionNode argument : arguments) {
+            result = 31 * result + System.identityHashCode(argument);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case CONSTANT:
+                return Double.toString(value);
+            case VARIABLE:
+                return "x[" + index + "]";
+            case NEGATE:
+                return "-(" + arguments[0] + ")";
+            case ADD:
+                return "(" + arguments[0] + " + " + arguments[1] + ")";
+            case SUBTRACT:
+                return "(" + arguments[0] + " - " + arguments[1] + ")";
+            case MULTIPLY:
+                return "(" + arguments[0] + " * " + arguments[1] + ")";
+            case DIVIDE:
+                return "(" + arguments[0] + " / " + arguments[1] + ")";
+            default:
+                return name + Arrays.toString(arguments);
+        }
+    }
+
+    /**
+     * Creates nodes, returning the existing one for an equal node, and folds operations on constants.
+     */
+    static class Table {
+        private static final ExpressionNode[] NONE = new ExpressionNode[0];
+        private final Map<ExpressionNode, ExpressionNode> nodes = new HashMap<>();
+
+        private ExpressionNode intern(int kind, double value, int index, String name, ExpressionNode... arguments) {
+            ExpressionNode node = new ExpressionNode(kind, value, index, name, arguments, nodes.size());
+            ExpressionNode existing = nodes.get(node);
+            if (existing != null) {
+                return existing;
+            }
+            nodes.put(node, node);
+            return node;
+        }
+
+        ExpressionNode constant(double value) {
+            return intern(CONSTANT, value, -1, null, NONE);
+        }
+
+        ExpressionNode variable(int index) {
+            return intern(VARIABLE, 0, index, null, NONE);
+        }
+
+        ExpressionNode negate(ExpressionNode a) {
+            if (a.isConstant()) {
+                return constant(-a.value);
+            }
+            if (a.kind == NEGATE) {
+                return a.arguments[0];
+            }
+            return intern(NEGATE, 0, -1, null, a);
+        }
+
+        ExpressionNode binary(int kind, ExpressionNode a, ExpressionNode b) {
+            if (a.isConstant() && b.isConstant()) {
+                return constant(apply(kind, a.value, b.value));
+            }
+            /** identities that hold for every double, including infinities and NaN **/
+            switch (kind) {
+                case ADD:
+                    if (isZero(a, -0.0)) {
+                        return b;
+                    }
+                    if (isZero(b, -0.0)) {
+                        return a;
+                    }
+                    break;
+                case SUBTRACT:
+                    if (isZero(b, 0.0)) {
+                        return a;
+                    }
+                    break;
+                case MULTIPLY:
+                    if (isOne(a)) {
+                        return b;
+                    }
+                    if (isOne(b)) {
+                        return a;
+                    }
+                    break;
+                case DIVIDE:
+                    if (isOne(b)) {
+                        return a;
+                    }
+                    break;
+            }
+            if ((kind == ADD || kind == MULTIPLY) && a.id > b.id) {
+                /** a + b and b + a are exactly equal, keep one of them **/
+                ExpressionNode swap = a;
+                a = b;
+                b = swap;
+            }
+            return intern(kind, 0, -1, null, a, b);
+        }
+
+        /**
+         * @param name      name of a static method of java.lang.Math
+         * @param arguments one or two arguments
+         * @return call, or its value if the arguments are constant
+         */
+        ExpressionNode call(String name, ExpressionNode... arguments) {
+            boolean constant = true;
+            for (ExpressionNode argument : arguments) {
+                constant &= argument.isConstant();
+            }
+            if (constant) {
+                return constant(arguments.length == 1 ? apply(name, arguments[0].value)
+                        : apply(name, arguments[0].value, arguments[1].value));
+            }
+            if (name.equals("pow") && arguments[1].isConstant()) {
+                if (arguments[1].value == 1) {
+                    return arguments[0];
+                }
+                if (arguments[1].value == 2) {
+                    /** Math.pow(x, 2) is x * x exactly **/
+                    return binary(MULTIPLY, arguments[0], arguments[0]);
+                }
+            }
+            return intern(CALL, 0, -1, name, arguments);
+        }
+
+        /**
+         * @param zero 0.0 or -0.0, x + (-0.0) and x - 0.0 are x for every x but x + 0.0 is not for x = -0.0
+         */
+        private static boolean isZero(ExpressionNode node, double zero) {
+            return node.isConstant() && Double.doubleToLongBits(node.value) == Double.doubleToLongBits(zero);
+        }
+
+        private static boolean isOne(ExpressionNode node) {
+            return node.isConstant() && node.value == 1;
+        }
+
+        static double apply(int kind, double a, double b) {
+            switch (kind) {
+                case ADD:
+                    return a + b;
+                case SUBTRACT:
+                    return a - b;
+                case MULTIPLY:
+                    return a * b;
+                case DIVIDE:
+                    return a / b;
+                default:
+                    throw new IllegalArgumentException("Not a binary operation: " + kind);
+            }
+        }
+
+        static double apply(String name, double a) {
+            switch (name) {
+                case "sin":
+                    return Math.sin(a);
+                case "cos":
+                    return Math.cos(a);
+                case "tan":
+                    return Math.tan(a);
+                case "asin":
+                    return Math.asin(a);
+                case "acos":
+                    return Math.acos(a);
+                case "atan":
+                    return Math.atan(a);
+                case "sinh":
+                    return Math.sinh(a);
+                case "cosh":
+                    return Math.cosh(a);
+                case "tanh":
+                    return Math.tanh(a);
+                case "exp":
+                    return Math.exp(a);
+                case "log":
+                    return Math.log(a);
+                case "log10":
+                    return Math.log10(a);
+                case "sqrt":
+                    return Math.sqrt(a);
+                case "cbrt":
+                    return Math.cbrt(a);
+                case "abs":
+                    return Math.abs(a);
+                case "signum":
+                    return Math.signum(a);
+                case "floor":
+                    return Math.floor(a);
+                case "ceil":
+                    return Math.ceil(a);
+                default:
+                    throw new IllegalArgumentException("Unknown function " + name + " of one argument");
+            }
+        }
+
+        static double apply(String name, double a, double b) {
+            switch (name) {
+                case "pow":
+                    return Math.pow(a, b);
+                case "atan2":
+                    return Math.atan2(a, b);
+                case "hypot":
+                    return Math.hypot(a, b);
+                case "min":
+                    return Math.min(a, b);
+                case "max":
+                    return Math.max(a, b);
+                default:
+                    throw new IllegalArgumentException("Unknown function " + name + " of two arguments");
+            }
+        }
+
+        /**
+         * @return whether java.lang.Math has the function with the given number of double arguments
+         */
+        static boolean isFunction(String name, int arity) {
+            try {
+                if (arity == 1) {
+                    apply(name, 0);
+                } else if (arity == 2) {
+                    apply(name, 0, 0);
+                } else {
+                    return false;
+                }
+                return true;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recursive descent parser of arithmetic expressions:
+ * <pre>
+ * sum     = product (('+' | '-') product)*
+ * product = unary (('*' | '/') unary)*
+ * unary   = ('-' | '+') unary | power
+ * power   = primary ('^' unary)?
+ * primary = number | name | name '(' sum (',' sum)* ')' | '(' sum ')'
+ * </pre>
+ * Names are variables, the time t, parameters, pi and e in this order of priority,
+ * or functions of java.lang.Math.
+ */
+class ExpressionParser {
+    private final ExpressionNode.Table table;
+    private final List<String> variables;
+    private final Map<String, Double> parameters;
+    private String source;
+    private int position;
+
+    /**
+     * @param table      table of the nodes, shared by all expressions of a system
+     * @param variables  names of x_0..x_{n-1}, the time t is x_n
+     * @param parameters values substituted for the parameter names
+     */
+    ExpressionParser(ExpressionNode.Table table, List<String> variables, Map<String, Double> parameters) {
+        this.table = table;
+        this.variables = variables;
+        this.parameters = parameters;
+    }
+
+    /**
+     * @param source expression
+     * @return root of the expression
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    ExpressionNode parse(String source) {
+        this.source = source;
+        this.position = 0;
+        ExpressionNode result = sum();
+        skipSpaces();
+        if (position < source.length()) {
+            throw error("Unexpected '" + source.charAt(position) + "'");
+        }
+        return result;
+    }
+
+    private ExpressionNode sum() {
+        ExpressionNode result = product();
+        while (true) {
+            if (accept('+')) {
+                result = table.binary(ExpressionNode.ADD, result, product());
+            } else if (accept('-')) {
+                result = table.binary(ExpressionNode.SUBTRACT, result, product());
+            } else {
+                return result;
+            }
+        }
+    }
+
+    private ExpressionNode product() {
+        ExpressionNode result = unary();
+        while (true) {
+            if (accept('*')) {
+                result = table.binary(ExpressionNode.MULTIPLY, result, unary());
+            } else if (accept('/')) {
+                result = table.binary(ExpressionNode.DIVIDE, result, unary());
+            } else {
+                return result;
+            }
+        }
+    }
+
+    private ExpressionNode unary() {
+        if (accept('-')) {
+            return table.negate(unary());
+        }
+        if (accept('+')) {
+            return unary();
+        }
+        ExpressionNode base = primary();
+        if (accept('^')) {
+            return table.call("pow", base, unary());
+        }
+        return base;
+    }
+
+    private ExpressionNode primary() {
+        skipSpaces();
+        if (position == source.length()) {
+            throw error("Unexpected end of expression");
+        }
+        char c = source.charAt(position);
+        if (accept('(')) {
+            ExpressionNode result = sum();
+            expect(')');
+            return result;
+        }
+        if (Character.isDigit(c) || c == '.') {
+            return number();
+        }
+        if (Character.isLetter(c) || c == '_') {
+            int start = position;
+            while (position < source.length()
+                    && (Character.isLetterOrDigit(source.charAt(position)) || source.charAt(position) == '_')) {
+                position++;
+            }
+            String name = source.substring(start, position);
+            if (accept('(')) {
+                return call(name, start);
+            }
+            return name(name, start);
+        }
+        throw error("Unexpected '" + c + "'");
+    }
+
+    private ExpressionNode number() {
+        int start = position;
+        while (position < source.length() && (Character.isDigit(source.charAt(position)) || source.charAt(position) == '.')) {
+            position++;
+        }
+        if (position < source.length() && (source.charAt(position) == 'e' || source.charAt(position) == 'E')) {
+            int mantissaEnd = position;
+            position++;
+            if (position < source.length() && (source.charAt(position) == '+' || source.charAt(position) == '-')) {
+                position++;
+            }
+            if (position == source.length() || !Character.isDigit(source.charAt(position))) {
+                /** not an exponent, e.g. 2e as 2 * e is not supported either **/
+                position = mantissaEnd;
+            }
+            while (position < source.length() && Character.isDigit(source.charAt(position))) {
+                position++;
+            }
+        }
+        try {
+            return table.constant(Double.parseDouble(source.substring(start, position)));
+        } catch (NumberFormatException e) {
+            position = start;
+            throw error("Malformed number");
+        }
+    }
+
+    private ExpressionNode call(String name, int start) {
+        List<ExpressionNode> arguments = new ArrayList<>();
+        arguments.add(sum());
+        while (accept(',')) {
+            arguments.add(sum());
+        }
+        expect(')');
+        if (!ExpressionNode.Table.isFunction(name, arguments.size())) {
+            position = start;
+            throw error("Unknown function " + name + " of " + arguments.size() + " arguments");
+        }
+        return table.call(name, arguments.toArray(new ExpressionNode[arguments.size()]));
+    }
+
+    private ExpressionNode name(String name, int start) {
+        int index = variables.indexOf(name);
+        if (index >= 0) {
+            return table.variable(index);
+        }
+        if (name.equals("t")) {
+            return table.variable(variables.size());
+        }
+        Double value = parameters.get(name);
+        if (value != null) {
+            return table.constant(value);
+        }
+        if (name.equals("pi")) {
+            return table.constant(Math.PI);
+        }
+        if (name.equals("e")) {
+            return table.constant(Math.E);
+        }
+        position = start;
+        throw error("Unknown name " + name);
+    }
+
+    private void skipSpaces() {
+        while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+    }
+
+    private boolean accept(char c) {
+        skipSpaces();
+        if (position < source.length() && source.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!accept(c)) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position + " of \"" + source + "\"");
+    }
+}
@@ -18,4 +18,16 @@ public abstract class Function {
         }
         return res;
     }
+
+    /**
+     * Calculates the value and the derivatives at the same point.
+     *
+     * @param x          argument
+     * @param derivative output, derivative[i] = df/dx_i(x), i = 0..x.length-1
+     * @return f(x)
+     */
+    public double calculate(double[] x, double[] derivative) {
+        System.arraycopy(totalDerivative(x), 0, derivative, 0, x.length);
+        return calculate(x);
+    }
 }
@@ -22,9 +22,15 @@ import org.jzy3d.plot3d.rendering.canvas.Quality;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Showing how to pipe an offscreen Jzy3d chart image to a JavaFX ImageView.
@@ -41,7 +47,27 @@ import java.util.concurrent.Executors;
  */
 public class GUIMain extends Application {
 
+    /** first chunks are small so the attractor starts to appear at once **/
+    private static final int FIRST_CHUNK = 256;
+    private static final int MAX_CHUNK = 16384;
+    private static final DifferentialEquationSystem.Method[] METHODS = {
+            DifferentialEquationSystem.Method.ImplicitEuler, DifferentialEquationSystem.Method.ExplicitEuler,
+            DifferentialEquationSystem.Method.ExplicitRungeKutta, DifferentialEquationSystem.Method.ExplicitAdamsBashfort};
+    /** bits of mode and colors of METHODS **/
+    private static final int[] BITS = {0x8, 0x4, 0x2, 0x1};
+    private static final Color[] COLORS = {Color.RED, Color.BLUE, Color.YELLOW, Color.GREEN};
+
     private final ExecutorService service = Executors.newSingleThreadExecutor();
+    /** runs one recomputation at a time, a newer one cancels the running one **/
+    private final ExecutorService solver = Executors.newSingleThreadExecutor();
+    /** solves the methods of a recomputation side by side **/
+    private final ExecutorService methodSolver = Executors.newFixedThreadPool(
+            Math.min(METHODS.length, Runtime.getRuntime().availableProcessors()));
+    /**
+     * full trajectories by solve parameters, so changes of points and methods do not integrate again
+     * and more iterations only integrate the added steps
+     **/
+    private final TrajectoryCache cache = new TrajectoryCache(Runtime.getRuntime().maxMemory() / 4);
     private final JavaFXChartFactory factory = new JavaFXChartFactory();
     private final Pane canvas = new Pane();
     private final VBox root = new VBox();
@@ -55,36 +81,50 @@ public class GUIMain extends Application {
     private double dt = 1e-3;
     private int mode = 0xF;
     private double[] x0 = new double[] {2, 2, 2, 0};
+    /** right-hand side of x, y, z typed at the console, null for the Lorenz system **/
+    private String[] equations = null;
     //private DifferentialEquationSystem.Method method = DifferentialEquationSystem.Method.ExplicitEuler;
+    private Recomputation recomputation = null;
+    private AWTChart chart;
+    /** scatters on the chart and the recomputation that made them, used on the JavaFX thread only **/
+    private final List<Scatter> shown = new ArrayList<>();
+    private Recomputation shownBy = null;
 
     public static void main(String[] args) {
+        SolverMetrics.register();
         Application.launch(args);
     }
 
     public double[][] solveSystem(DifferentialEquationSystem.Method method,
             final double r, final double b, final double sigma, double dt, int iterations) {
-        Random random = RandomHolder.random;
-        Function[] functions = new Function[3];
-        functions[0] = new Function() {
-            @Override
-            public double calculate(double[] x) {
-                return sigma * (x[1] - x[0]);
-            }
-        };
-        functions[1] = new Function() {
-            @Override
-            public double calculate(double[] x) {
-                return -x[0] * x[2] + r * x[0] - x[1];
-            }
-        };
-        functions[2] = new Function() {
-            @Override
-            public double calculate(double[] x) {
-                return x[0] * x[1] - b * x[2];
-            }
-        };
-        DifferentialEquationSystem differentialEquationSystem = new DifferentialEquationSystem(functions);
-        return differentialEquationSystem.solve(method, x0, dt, iterations);
+        ArrayObserver observer = new ArrayObserver(3, iterations);
+        solveSystem(method, r, b, sigma, dt, iterations, observer);
+        return observer.getResult();
+    }
+
+    public SolverStatistics solveSystem(DifferentialEquationSystem.Method method,
+            final double r, final double b, final double sigma, double dt, int iterations, StepObserver observer) {
+        return solveSystem(equations, x0, method, r, b, sigma, dt, iterations, observer);
+    }
+
+    private static SolverStatistics solveSystem(String[] equations, double[] x0, DifferentialEquationSystem.Method method,
+            double r, double b, double sigma, double dt, int iterations, StepObserver observer) {
+        return createSystem(equations, r, b, sigma).solve(method, x0, dt, iterations, observer);
+    }
+
+    private static DifferentialEquationSystem createSystem(String[] equations, double r, double b, double sigma) {
+        return new DifferentialEquationSystem(createFunction(equations, r, b, sigma));
+    }
+
+    private static VectorFunction createFunction(String[] equations, double r, double b, double sigma) {
+        if (equations == null) {
+            return new LorenzSystem(sigma, r, b);
+        }
+        return new ExpressionCompiler("x", "y", "z")
+                .setParameter("r", r)
+                .setParameter("b", b)
+                .setParameter("sigma", sigma)
+                .compile(equations);
     }
 
     @Override
@@ -104,6 +144,10 @@ public class GUIMain extends Application {
         stage.setScene(scene);
 
         root.getChildren().add(canvas);
+        chart = (AWTChart) factory.newChart(Quality.Nicest, IChartComponentFactory.Toolkit.offscreen);
+        ImageView imageView = factory.bindImageView(chart);
+        factory.addSceneSizeChangedListener(chart, scene);
+        canvas.getChildren().add(imageView);
         update();
 
         service.submit(consoleTask);
@@ -115,56 +159,255 @@ public class GUIMain extends Application {
         System.out.println("Solving " + method + ", color = " + color);
         //Random random = RandomHolder.random;
         //double[] x0 = new double[]{random.nextDouble(), random.nextDouble(), random.nextDouble(), 0};
-        double[][] v = solveSystem(method, r, b, sigma, dt, iterations);
-        Coord3d[] points = new Coord3d[this.points];
-        int step = iterations / this.points;
-        for (int i = 0, j = 0; i < points.length && j < v.length; ++i, j += step) {
-            points[i] = new Coord3d(v[j][0], v[j][1], v[j][2]);
-        }
+        final List<Coord3d> points = new ArrayList<>(this.points);
+        StepObserver sampler = new StepObserver() {
+            @Override
+            public void step(double[] x) {
+                points.add(new Coord3d(x[0], x[1], x[2]));
+            }
+        };
+        solveSystem(method, r, b, sigma, dt, iterations, new LttbObserver(3, iterations, budget(this.points), sampler));
         System.out.println("Rebuilding...");
-        return new Scatter(points, color);
+        return new Scatter(points.toArray(new Coord3d[points.size()]), color);
+    }
+
+    /**
+     * @return number of points to draw, LTTB keeps at least the first, the last and one in between
+     */
+    private static int budget(int points) {
+        return Math.max(3, points);
     }
 
-    private void update() {
+    /**
+     * Recomputes the picture with the current parameters in the background, cancelling the
+     * recomputation that is still running. Points reach the chart in chunks while they are solved.
+     */
+    private synchronized void update() {
         if (this.points > this.iterations) {
             this.points = this.iterations;
         }
+        if (recomputation != null) {
+            recomputation.cancel();
+        }
+        recomputation = new Recomputation();
+        solver.submit(recomputation);
+    }
 
-        Random random = RandomHolder.random;
-        double[] x0 = new double[]{2, 2, 2, 0};
-
-        AWTChart chart = (AWTChart) factory.newChart(Quality.Nicest, IChartComponentFactory.Toolkit.offscreen);
+    /**
+     * Puts a scatter of the recomputation on the chart, removing the scatters of the previous one.
+     *
+     * @param scatter scatter to add, or null to only remove the old ones
+     */
+    private void show(final Recomputation owner, final Scatter scatter) {
+        Platform.runLater(new Runnable() {
+            @Override
+            public void run() {
+                if (owner.isCancelled()) {
+                    return;
+                }
+                if (shownBy != owner) {
+                    for (Scatter old : shown) {
+                        chart.getScene().getGraph().remove(old, false);
+                    }
+                    shown.clear();
+                    shownBy = owner;
+                }
+                if (scatter != null) {
+                    chart.getScene().add(scatter);
+                    shown.add(scatter);
+                }
+                chart.render();
+            }
+        });
+    }
 
+    /**
+     * Solves the selected methods in parallel with the parameters at the time of creation, or
+     * takes their trajectories from the cache.
+     */
+    private class Recomputation implements Runnable {
+        private final String[] equations = GUIMain.this.equations;
+        private final double[] x0 = GUIMain.this.x0.clone();
+        private final double r = GUIMain.this.r;
+        private final double b = GUIMain.this.b;
+        private final double sigma = GUIMain.this.sigma;
+        private final double dt = GUIMain.this.dt;
+        private final int iterations = GUIMain.this.iterations;
+        private final int points = GUIMain.this.points;
+        private final int mode = GUIMain.this.mode;
+        private final List<CancellableObserver> active = new CopyOnWriteArrayList<>();
+        private volatile boolean cancelled = false;
+        private volatile boolean anyShown = false;
 
-        if ((mode & 0x8) != 0) {
-            Scatter scatter = createScatter(DifferentialEquationSystem.Method.ImplicitEuler, x0, Color.RED);
-            chart.getScene().add(scatter);
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            List<Future<?>> solves = new ArrayList<>();
+            for (int i = 0; i < METHODS.length; i++) {
+                if ((mode & BITS[i]) != 0) {
+                    final DifferentialEquationSystem.Method method = METHODS[i];
+                    final Color color = COLORS[i];
+                    solves.add(methodSolver.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            solve(method, color);
+                        }
+                    }));
+                }
+            }
+            boolean stale = false;
+            for (Future<?> solve : solves) {
+                try {
+                    solve.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CancellationException) {
+                        stale = true;
+                    } else {
+                        System.out.println(e.getCause().getMessage());
+                    }
+                }
+            }
+            if (stale || cancelled) {
+                System.out.println("Stale recomputation cancelled.");
+                return;
+            }
+            if (!anyShown) {
+                show(this, null);
+            }
+            System.out.println("Graph has been updated in " + (System.nanoTime() - start) / 1000000 + " ms.");
         }
-        if ((mode & 0x4) != 0) {
-            Scatter scatter = createScatter(DifferentialEquationSystem.Method.ExplicitEuler, x0, Color.BLUE);
-            chart.getScene().add(scatter);
+
+        private void solve(DifferentialEquationSystem.Method method, final Color color) {
+            SolveKey key = new SolveKey(method, this);
+            Trajectory cached = cache.get(key);
+            SolverState end = cache.getState(key);
+            if (cached != null && cached.size() >= iterations) {
+                System.out.println("Reusing " + method + ", color = " + color);
+                final List<Coord3d> coordinates = new ArrayList<>(points);
+                LttbObserver sampler = new LttbObserver(3, iterations, budget(points), new StepObserver() {
+                    @Override
+                    public void step(double[] x) {
+                        coordinates.add(new Coord3d(x[0], x[1], x[2]));
+                    }
+                });
+                double[] row = new double[4];
+                for (long k = 0; k < iterations; k++) {
+                    cached.copyRow(k, row);
+                    sampler.step(row);
+                }
+                anyShown = true;
+                show(this, new Scatter(coordinates.toArray(new Coord3d[coordinates.size()]), color));
+                return;
+            }
+            ChunkedObserver chunks = new ChunkedObserver(FIRST_CHUNK, MAX_CHUNK, new ChunkedObserver.Sink() {
+                @Override
+                public void chunk(double[][] states) {
+                    Coord3d[] coordinates = new Coord3d[states.length];
+                    for (int k = 0; k < states.length; k++) {
+                        coordinates[k] = new Coord3d(states[k][0], states[k][1], states[k][2]);
+                    }
+                    anyShown = true;
+                    show(Recomputation.this, new Scatter(coordinates, color));
+                }
+            });
+            /** rows of x, y, z, t; a trajectory the cache would not keep is not recorded at all **/
+            final Trajectory trajectory = cache.fits(8L * 4 * iterations) ? new Trajectory(3, iterations) : null;
+            /** the shape of fast excursions survives, unlike with every k-th state **/
+            final LttbObserver sampler = new LttbObserver(3, iterations, budget(points), chunks);
+            CancellableObserver observer = new CancellableObserver(new StepObserver() {
+                @Override
+                public void step(double[] x) {
+                    if (trajectory != null) {
+                        trajectory.step(x);
+                    }
+                    sampler.step(x);
+                }
+            });
+            if (trajectory == null) {
+                /** only the LTTB buckets are kept, the memory does not grow with the number of steps **/
+                System.out.println("Streaming " + method + " without caching, " + iterations
+                        + " steps do not fit the cache");
+            }
+            active.add(observer);
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            DifferentialEquationSystem system = createSystem(equations, r, b, sigma);
+            if (cached != null && end != null) {
+                System.out.println("Extending " + method + " from " + cached.size() + " steps, color = " + color);
+                /** the cached rows go through the same observers, so the picture is decimated as a single solve **/
+                double[] row = new double[4];
+                for (long k = 0; k < cached.size(); k++) {
+                    cached.copyRow(k, row);
+                    observer.step(row);
+                }
+                end = system.resume(end, iterations - cached.size(), observer);
+            } else {
+                System.out.println("Solving " + method + ", color = " + color);
+                end = system.solveResumable(method, x0, dt, iterations, observer);
+            }
+            sampler.flush();
+            chunks.flush();
+            if (trajectory != null) {
+                cache.put(key, trajectory, end);
+            }
         }
-        if ((mode & 0x2) != 0) {
-            Scatter scatter = createScatter(DifferentialEquationSystem.Method.ExplicitRungeKutta, x0, Color.YELLOW);
-            chart.getScene().add(scatter);
+
+        void cancel() {
+            cancelled = true;
+            for (CancellableObserver observer : active) {
+                observer.cancel();
+            }
         }
-        if ((mode & 0x1) != 0) {
-            Scatter scatter = createScatter(DifferentialEquationSystem.Method.ExplicitAdamsBashfort, x0, Color.GREEN);
-            chart.getScene().add(scatter);
+
+        boolean isCancelled() {
+            return cancelled;
         }
+    }
 
-        Platform.runLater(new Runnable() {
-            @Override
-            public void run() {
-                ImageView imageView = factory.bindImageView(chart);
-                factory.addSceneSizeChangedListener(chart, scene);
+    /**
+     * Everything a trajectory depends on but its length, a longer one starts with the rows of a shorter one.
+     */
+    private static final class SolveKey {
+        private final DifferentialEquationSystem.Method method;
+        private final String[] equations;
+        private final double[] x0;
+        private final double r;
+        private final double b;
+        private final double sigma;
+        private final double dt;
 
-                canvas.getChildren().clear();
-                canvas.getChildren().add(imageView);
+        SolveKey(DifferentialEquationSystem.Method method, Recomputation parameters) {
+            this.method = method;
+            this.equations = parameters.equations;
+            this.x0 = parameters.x0;
+            this.r = parameters.r;
+            this.b = parameters.b;
+            this.sigma = parameters.sigma;
+            this.dt = parameters.dt;
+        }
 
-                System.out.println("Graph has been updated.");
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SolveKey)) {
+                return false;
             }
-        });
+            SolveKey other = (SolveKey) o;
+            return method == other.method && Arrays.equals(equations, other.equations) && Arrays.equals(x0, other.x0)
+                    && Double.compare(r, other.r) == 0 && Double.compare(b, other.b) == 0
+                    && Double.compare(sigma, other.sigma) == 0 && Double.compare(dt, other.dt) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = method.hashCode();
+            hash = 31 * hash + Arrays.hashCode(equations);
+            hash = 31 * hash + Arrays.hashCode(x0);
+            return 31 * hash + Arrays.hashCode(new double[]{r, b, sigma, dt});
+        }
     }
 
     private void handleCommand(String command) {
@@ -202,7 +445,7 @@ public class GUIMain extends Application {
                     break;
                     case "sigma":
                     case "s": {
-                        r = Double.parseDouble(args[2]);
+                        sigma = Double.parseDouble(args[2]);
                     }
                     break;
                     case "t":
@@ -210,6 +453,18 @@ public class GUIMain extends Application {
                         dt = Double.parseDouble(args[2]);
                     }
                     break;
+                    case "equations":
+                    case "eq": {
+                        String rest = command.substring(command.indexOf(args[1]) + args[1].length()).trim();
+                        String[] parsed = rest.isEmpty() || rest.equalsIgnoreCase("lorenz") ? null : rest.split(";");
+                        try {
+                            createFunction(parsed, r, b, sigma);
+                            equations = parsed;
+                        } catch (IllegalArgumentException e) {
+                            System.out.println(e.getMessage());
+                        }
+                    }
+                    break;
                     /*case "method": {
                         switch (args[2].toLowerCase()) {
                             case "expliciteuler":
@@ -341,6 +596,8 @@ public class GUIMain extends Application {
     }
 
     private class ConsoleTask implements Runnable {
+        /** commands are picked up within this time, ms **/
+        private static final long POLL_INTERVAL = 20;
 
         private volatile boolean isCanceled = false;
 
@@ -349,10 +606,10 @@ public class GUIMain extends Application {
             try {
                 BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
                 while (!isCanceled) {
-                    if (reader.ready()) {
+                    while (reader.ready()) {
                         handleCommand(reader.readLine());
                     }
-                    Thread.sleep(1000);
+                    Thread.sleep(POLL_INTERVAL);
                 }
                 System.out.println("End of task");
             } catch (InterruptedException e) {
@@ -0,0 +1,138 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Implicit Euler method, y = x + dt * f(y, t + dt), solved by simplified Newton iterations.
+ * The iteration matrix I - dt * J is factored once and reused across iterations and steps,
+ * the Jacobian is evaluated again only when the iterations converge slowly.
+ */
+class ImplicitEulerStepper extends Stepper {
+    private static final double NEWTON_TOLERANCE = 1e-10;
+    /** contraction rate above which an old Jacobian is considered too inaccurate **/
+    private static final double SLOW_RATE = 0.5;
+    private static final int MAX_SIMPLIFIED_ITERATIONS = 7;
+    private static final int MAX_ITERATIONS = 50;
+    private final IterationMatrix iterationMatrix;
+    private final double[] y;
+    private final double[] fy;
+    private final double[] delta;
+    private final double[] increment;
+    private double previousDt = 0;
+    /** whether the last iterations stopped because the corrections grew **/
+    private boolean diverged = false;
+
+    ImplicitEulerStepper(VectorFunction function, SolverStatistics statistics) {
+        super(function, statistics);
+        iterationMatrix = new IterationMatrix(function, statistics);
+        y = new double[n + 1];
+        fy = new double[n];
+        delta = new double[n];
+        increment = new double[n];
+    }
+
+    @Override
+    void reset(double[] x0) {
+        super.reset(x0);
+        iterationMatrix.reset();
+        previousDt = 0;
+    }
+
+    @Override
+    void save(StateBuffer buffer) {
+        super.save(buffer);
+        buffer.put(increment);
+        buffer.put(previousDt);
+        iterationMatrix.save(buffer);
+    }
+
+    @Override
+    void restore(StateBuffer buffer) {
+        super.restore(buffer);
+        buffer.get(increment);
+        previousDt = buffer.getDouble();
+        iterationMatrix.restore(buffer);
+    }
+
+    @Override
+    void step(double dt) {
+        predict(dt);
+        if (!newton(dt, MAX_SIMPLIFIED_ITERATIONS) && !retry(dt)) {
+            throw new IllegalStateException("Newton iterations do not converge at t = " + x[n]);
+        }
+        for (int j = 0; j < n; j++) {
+            increment[j] = y[j] - x[j];
+            x[j] = y[j];
+        }
+        x[n] = y[n];
+        previousDt = dt;
+        iterationMatrix.age();
+    }
+
+    /**
+     * Goes on after the simplified iterations failed. A stale Jacobian is evaluated again, the
+     * iterations continue from the current iterate if they were only slow and start over if they
+     * diverged. With a fresh Jacobian diverging iterations would only fail the same way again.
+     *
+     * @return whether the iterations converged
+     */
+    private boolean retry(double dt) {
+        if (iterationMatrix.isFresh()) {
+            if (diverged) {
+                return false;
+            }
+        } else {
+            iterationMatrix.refresh(x);
+            if (diverged) {
+                predict(dt);
+            }
+        }
+        return newton(dt, MAX_ITERATIONS);
+    }
+
+    /**
+     * Starts the iterations from the increment of the previous step.
+     */
+    private void predict(double dt) {
+        double scale = previousDt == 0 ? 0 : dt / previousDt;
+        for (int j = 0; j < n; j++) {
+            y[j] = x[j] + scale * increment[j];
+        }
+        y[n] = x[n] + dt;
+    }
+
+    /**
+     * Simplified Newton iterations from the current iterate y.
+     *
+     * @return whether the iterations converged
+     */
+    private boolean newton(double dt, int maxIterations) {
+        diverged = false;
+        iterationMatrix.factor(x, dt);
+        double previousNorm = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < maxIterations; k++) {
+            statistics.newtonIterations++;
+            evaluate(y, fy);
+            for (int j = 0; j < n; j++) {
+                delta[j] = x[j] + dt * fy[j] - y[j];
+            }
+            iterationMatrix.solve(delta);
+            double norm = 0;
+            for (int j = 0; j < n; j++) {
+                y[j] += delta[j];
+                norm = Math.max(norm, Math.abs(delta[j]) / (NEWTON_TOLERANCE * (1 + Math.abs(y[j]))));
+            }
+            if (norm <= 1) {
+                return true;
+            }
+            double rate = norm / previousNorm;
+            if (rate >= 1) {
+                diverged = true;
+                return false;
+            }
+            if (rate > SLOW_RATE && !iterationMatrix.isFresh()) {
+                return false;
+            }
+            previousNorm = norm;
+        }
+        return false;
+    }
+}
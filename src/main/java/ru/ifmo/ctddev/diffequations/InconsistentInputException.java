@@ -0,0 +1,12 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Thrown when an iterative method is not guaranteed to converge for the given system.
+ */
+public class InconsistentInputException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public InconsistentInputException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,127 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Factored matrix I - gamma * J of the Newton iterations of implicit methods. The Jacobian J and
+ * the factorization are kept between iterations and steps: J is refreshed only on request and
+ * the matrix is factored again only when J or gamma change.
+ */
+class IterationMatrix {
+    private final VectorFunction function;
+    private final int n;
+    private final SolverStatistics statistics;
+    private final double[][] jacobian;
+    private final double[][] matrix;
+    private LUDecomposition decomposition;
+    private double gamma = Double.NaN;
+    private boolean hasJacobian = false;
+    private boolean fresh = false;
+
+    IterationMatrix(VectorFunction function, SolverStatistics statistics) {
+        this.function = function;
+        this.n = function.getDimension();
+        this.statistics = statistics;
+        jacobian = new double[n][n];
+        matrix = new double[n][n];
+    }
+
+    /**
+     * Forgets the Jacobian, the next {@link #factor} evaluates it.
+     */
+    void reset() {
+        hasJacobian = false;
+        fresh = false;
+        decomposition = null;
+    }
+
+    /**
+     * Writes the Jacobian and the coefficient it is factored with. The factorization itself is
+     * not kept, {@link #restore} leaves it to be computed again from the same numbers.
+     */
+    void save(StateBuffer buffer) {
+        buffer.put(hasJacobian);
+        buffer.put(fresh);
+        buffer.put(gamma);
+        if (hasJacobian) {
+            for (double[] row : jacobian) {
+                buffer.put(row);
+            }
+        }
+    }
+
+    void restore(StateBuffer buffer) {
+        hasJacobian = buffer.getBoolean();
+        fresh = buffer.getBoolean();
+        gamma = buffer.getDouble();
+        if (hasJacobian) {
+            for (double[] row : jacobian) {
+                buffer.get(row);
+            }
+        }
+        decomposition = null;
+    }
+
+    /**
+     * Evaluates the Jacobian at x.
+     *
+     * @param x state, x[n] = t
+     */
+    void refresh(double[] x) {
+        long start = System.nanoTime();
+        int evaluations = function.jacobian(x, jacobian);
+        statistics.jacobianNanos += System.nanoTime() - start;
+        statistics.jacobianEvaluations++;
+        statistics.evaluations += evaluations;
+        hasJacobian = true;
+        fresh = true;
+        decomposition = null;
+    }
+
+    /**
+     * @return whether the Jacobian was evaluated since the last {@link #age} call
+     */
+    boolean isFresh() {
+        return fresh;
+    }
+
+    /**
+     * Marks the Jacobian as computed at an older state.
+     */
+    void age() {
+        fresh = false;
+    }
+
+    /**
+     * Factors I - gamma * J unless it is factored already, evaluating J at x if there is none.
+     *
+     * @param x     state to evaluate the Jacobian at if needed, x[n] = t
+     * @param gamma coefficient of the Jacobian
+     */
+    void factor(double[] x, double gamma) {
+        if (!hasJacobian) {
+            refresh(x);
+        }
+        if (decomposition != null && gamma == this.gamma) {
+            return;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                matrix[i][j] = -gamma * jacobian[i][j];
+            }
+            matrix[i][i] += 1;
+        }
+        decomposition = new LUDecomposition(matrix);
+        statistics.factorizationNanos += System.nanoTime() - start;
+        statistics.factorizations++;
+        this.gamma = gamma;
+    }
+
+    /**
+     * Solves (I - gamma * J) x = b with the current factorization.
+     *
+     * @param b right-hand side, replaced by the solution
+     */
+    void solve(double[] b) {
+        decomposition.solveInPlace(b);
+    }
+}
@@ -0,0 +1,256 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * LU factorization with partial pivoting, PA = LU. The matrix is factored once in O(n^3),
+ * then every right-hand side of A or its transpose is solved in O(n^2).
+ * <p>
+ * The factorization is blocked right-looking: a panel of {@link #BLOCK} columns is factored,
+ * the rows of U right of it are solved, and the rest of the matrix is updated with the panel at
+ * once, so most of the work is a matrix product that runs from cache.
+ */
+public class LUDecomposition {
+    /** columns of a panel **/
+    private static final int BLOCK = 64;
+    /** columns of U12 kept in cache during the trailing update, 64 x 256 doubles **/
+    private static final int COLUMN_BLOCK = 256;
+    /** multiply-adds of the trailing update worth running in a separate task **/
+    private static final int TASK_WORK = 1 << 15;
+    private final int n;
+    private final double[][] lu;
+    /** row swapped with row k at the k-th elimination step **/
+    private final int[] pivot;
+    private final int sign;
+
+    /**
+     * Factors the matrix in place, it holds L below the diagonal and U above afterwards.
+     *
+     * @param a square matrix, overwritten
+     * @throws ArithmeticException if the matrix is singular
+     */
+    public LUDecomposition(double[][] a) {
+        n = a.length;
+        lu = a;
+        pivot = new int[n];
+        int swaps = 0;
+        for (int kb = 0; kb < n; kb += BLOCK) {
+            int kEnd = Math.min(kb + BLOCK, n);
+            swaps += factorPanel(kb, kEnd);
+            solveUpper(kb, kEnd);
+            updateTrailing(kb, kEnd);
+        }
+        sign = swaps % 2 == 0 ? 1 : -1;
+    }
+
+    /**
+     * Factors the columns kb..kEnd-1 of the rows below kb with partial pivoting, the columns to
+     * the right are left for {@link #solveUpper} and {@link #updateTrailing}. Rows are swapped
+     * whole, so the L part of the earlier panels follows them.
+     *
+     * @return number of row swaps
+     */
+    private int factorPanel(int kb, int kEnd) {
+        int swaps = 0;
+        for (int k = kb; k < kEnd; k++) {
+            int max = k;
+            for (int i = k + 1; i < n; i++) {
+                if (Math.abs(lu[i][k]) > Math.abs(lu[max][k])) {
+                    max = i;
+                }
+            }
+            pivot[k] = max;
+            if (lu[max][k] == 0) {
+                throw new ArithmeticException("Matrix is singular");
+            }
+            if (max != k) {
+                double[] temp = lu[k];
+                lu[k] = lu[max];
+                lu[max] = temp;
+                swaps++;
+            }
+            double[] row = lu[k];
+            for (int i = k + 1; i < n; i++) {
+                double[] current = lu[i];
+                double factor = current[k] / row[k];
+                current[k] = factor;
+                if (factor != 0) {
+                    for (int j = k + 1; j < kEnd; j++) {
+                        current[j] -= factor * row[j];
+                    }
+                }
+            }
+        }
+        return swaps;
+    }
+
+    /**
+     * Turns the rows kb..kEnd-1 right of the panel into rows of U, U12 = L11^-1 A12.
+     */
+    private void solveUpper(int kb, int kEnd) {
+        for (int k = kb + 1; k < kEnd; k++) {
+            double[] row = lu[k];
+            for (int p = kb; p < k; p++) {
+                double factor = row[p];
+                if (factor != 0) {
+                    double[] upper = lu[p];
+                    for (int j = kEnd; j < n; j++) {
+                        row[j] -= factor * upper[j];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A22 -= L21 U12 for the rows and columns after the panel. Columns are taken in blocks, so a
+     * block of U12 stays in cache while all rows are updated with it; rows are split between the
+     * threads of the common pool. Every element gets the updates in the order of the unblocked
+     * elimination, the result does not depend on the blocking.
+     */
+    private void updateTrailing(final int kb, final int kEnd) {
+        if (kEnd == n) {
+            return;
+        }
+        long work = (long) (kEnd - kb) * (n - kEnd);
+        Parallel.forRange(kEnd, n, (int) Math.max(1, TASK_WORK / work), new Parallel.Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int jb = kEnd; jb < n; jb += COLUMN_BLOCK) {
+                    int jEnd = Math.min(jb + COLUMN_BLOCK, n);
+                    for (int i = from; i < to; i++) {
+                        double[] current = lu[i];
+                        for (int p = kb; p < kEnd; p++) {
+                            double factor = current[p];
+                            if (factor != 0) {
+                                double[] upper = lu[p];
+                                for (int j = jb; j < jEnd; j++) {
+                                    current[j] -= factor * upper[j];
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return size of the matrix
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @return det A
+     */
+    public double determinant() {
+        double determinant = sign;
+        for (int i = 0; i < n; i++) {
+            determinant *= lu[i][i];
+        }
+        return determinant;
+    }
+
+    /**
+     * Solves Ax = b.
+     *
+     * @param b right-hand side
+     * @return x
+     */
+    public double[] solve(double[] b) {
+        double[] x = b.clone();
+        solveInPlace(x);
+        return x;
+    }
+
+    /**
+     * Solves Ax = b[k] for every right-hand side.
+     *
+     * @param b right-hand sides, b[k] is the k-th vector
+     * @return solutions, x[k] is the solution for b[k]
+     */
+    public double[][] solve(double[][] b) {
+        double[][] x = new double[b.length][];
+        for (int k = 0; k < b.length; k++) {
+            x[k] = solve(b[k]);
+        }
+        return x;
+    }
+
+    /**
+     * Solves Ax = b without allocation.
+     *
+     * @param b right-hand side, replaced by the solution
+     */
+    public void solveInPlace(double[] b) {
+        for (int k = 0; k < n; k++) {
+            int p = pivot[k];
+            if (p != k) {
+                double t = b[k];
+                b[k] = b[p];
+                b[p] = t;
+            }
+        }
+        for (int i = 1; i < n; i++) {
+            double[] row = lu[i];
+            double sum = b[i];
+            for (int j = 0; j < i; j++) {
+                sum -= row[j] * b[j];
+            }
+            b[i] = sum;
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double[] row = lu[i];
+            double sum = b[i];
+            for (int j = i + 1; j < n; j++) {
+                sum -= row[j] * b[j];
+            }
+            b[i] = sum / row[i];
+        }
+    }
+
+    /**
+     * Solves A^T x = b.
+     *
+     * @param b right-hand side
+     * @return x
+     */
+    public double[] solveTranspose(double[] b) {
+        double[] x = b.clone();
+        solveTransposeInPlace(x);
+        return x;
+    }
+
+    /**
+     * Solves A^T x = b without allocation, A^T = U^T L^T P.
+     *
+     * @param b right-hand side, replaced by the solution
+     */
+    public void solveTransposeInPlace(double[] b) {
+        /** U^T z = b, column i of U is walked row by row so b is updated as soon as z_i is known **/
+        for (int i = 0; i < n; i++) {
+            double[] row = lu[i];
+            b[i] /= row[i];
+            double z = b[i];
+            for (int j = i + 1; j < n; j++) {
+                b[j] -= row[j] * z;
+            }
+        }
+        /** L^T w = z **/
+        for (int i = n - 1; i > 0; i--) {
+            double[] row = lu[i];
+            double w = b[i];
+            for (int j = 0; j < i; j++) {
+                b[j] -= row[j] * w;
+            }
+        }
+        for (int k = n - 1; k >= 0; k--) {
+            int p = pivot[k];
+            if (p != k) {
+                double t = b[k];
+                b[k] = b[p];
+                b[p] = t;
+            }
+        }
+    }
+}
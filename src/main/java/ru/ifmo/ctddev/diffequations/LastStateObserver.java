@@ -0,0 +1,32 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Keeps only the last state of the integration.
+ */
+public class LastStateObserver implements StepObserver {
+    private double[] state;
+    private long steps;
+
+    @Override
+    public void step(double[] x) {
+        if (state == null) {
+            state = new double[x.length];
+        }
+        System.arraycopy(x, 0, state, 0, x.length);
+        steps++;
+    }
+
+    /**
+     * @return last state, state[n] = t, or null if there were no steps
+     */
+    public double[] getState() {
+        return state;
+    }
+
+    /**
+     * @return number of states seen
+     */
+    public long getSteps() {
+        return steps;
+    }
+}
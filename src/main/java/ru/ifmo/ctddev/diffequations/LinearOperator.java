@@ -0,0 +1,29 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Square matrix known only by its products with vectors, enough for the Krylov solvers
+ * in {@link ConjugateGradients}.
+ */
+public interface LinearOperator {
+
+    /**
+     * @return n, the operator maps vectors of length n to vectors of length n
+     */
+    int size();
+
+    /**
+     * Calculates Av.
+     *
+     * @param vector v
+     * @param result output, Av
+     */
+    void apply(double[] vector, double[] result);
+
+    /**
+     * Calculates A^T v.
+     *
+     * @param vector v
+     * @param result output, A^T v
+     */
+    void applyTranspose(double[] vector, double[] result);
+}
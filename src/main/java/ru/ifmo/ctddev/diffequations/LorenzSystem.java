@@ -0,0 +1,60 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Lorenz system dx/dt = sigma (y - x), dy/dt = x (r - z) - y, dz/dt = xy - bz.
+ * Parameters are sigma, r and b in this order.
+ */
+public class LorenzSystem extends ParametricVectorFunction {
+    private double sigma;
+    private double r;
+    private double b;
+
+    public LorenzSystem(double sigma, double r, double b) {
+        this.sigma = sigma;
+        this.r = r;
+        this.b = b;
+    }
+
+    @Override
+    public int getDimension() {
+        return 3;
+    }
+
+    @Override
+    public void calculate(double[] x, double[] result) {
+        result[0] = sigma * (x[1] - x[0]);
+        result[1] = -x[0] * x[2] + r * x[0] - x[1];
+        result[2] = x[0] * x[1] - b * x[2];
+    }
+
+    @Override
+    public int jacobian(double[] x, double[][] result) {
+        result[0][0] = -sigma;
+        result[0][1] = sigma;
+        result[0][2] = 0;
+        result[1][0] = r - x[2];
+        result[1][1] = -1;
+        result[1][2] = -x[0];
+        result[2][0] = x[1];
+        result[2][1] = x[0];
+        result[2][2] = -b;
+        return 0;
+    }
+
+    @Override
+    public int getParameterCount() {
+        return 3;
+    }
+
+    @Override
+    public void setParameters(double[] parameters) {
+        sigma = parameters[0];
+        r = parameters[1];
+        b = parameters[2];
+    }
+
+    @Override
+    public LorenzSystem copy() {
+        return new LorenzSystem(sigma, r, b);
+    }
+}
@@ -0,0 +1,187 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Reduces a trajectory to a point budget in one pass by Largest-Triangle-Three-Buckets: the first
+ * and the last states are kept, the others are split into budget - 2 buckets, and every bucket
+ * passes on the state making the largest triangle with the state chosen in the previous bucket
+ * and the mean of the next bucket. Areas are measured in the space of the watched components, a
+ * time series has to watch the time as well.
+ * <p>
+ * The choice is made among the extremes of every watched component in the bucket (MinMaxLTTB of
+ * Van Der Donckt et al.), so only the extremes of two buckets are stored and a state is passed
+ * one bucket later than it was solved.
+ */
+public class LttbObserver implements StepObserver {
+    private final int n;
+    private final int[] components;
+    private final long iterations;
+    private final int budget;
+    private final StepObserver observer;
+    private final int[] order;
+    /** third vertex of the triangles in the watched components **/
+    private final double[] mean;
+    /** last passed state, the first vertex of the triangles **/
+    private final double[] previous;
+    private final double[] last;
+    private BucketExtremes waiting;
+    private BucketExtremes current;
+    private long index = 0;
+    private long bucket = 0;
+    /** index of the first state of the next bucket **/
+    private long boundary;
+
+    /**
+     * Watches all components but the time.
+     *
+     * @param n          number of components
+     * @param iterations number of states the solve is going to pass
+     * @param budget     number of passed states, at least 3
+     * @param observer   receiver of the passed states
+     */
+    public LttbObserver(int n, long iterations, int budget, StepObserver observer) {
+        this(n, MinMaxObserver.allComponents(n), iterations, budget, observer);
+    }
+
+    /**
+     * @param n          number of components
+     * @param components watched components, i = n for the time
+     * @param iterations number of states the solve is going to pass
+     * @param budget     number of passed states, at least 3
+     * @param observer   receiver of the passed states
+     */
+    public LttbObserver(int n, int[] components, long iterations, int budget, StepObserver observer) {
+        if (components.length == 0) {
+            throw new IllegalArgumentException("At least one component must be watched");
+        }
+        if (budget < 3) {
+            throw new IllegalArgumentException("Budget must be at least 3: " + budget);
+        }
+        if (iterations < 0) {
+            throw new IllegalArgumentException("Negative number of iterations " + iterations);
+        }
+        this.n = n;
+        this.components = components;
+        this.iterations = iterations;
+        this.budget = budget;
+        this.observer = observer;
+        order = new int[2 * components.length];
+        mean = new double[components.length];
+        previous = new double[n + 1];
+        last = new double[n + 1];
+        waiting = new BucketExtremes(n, components);
+        current = new BucketExtremes(n, components);
+        boundary = start(1);
+    }
+
+    /**
+     * States past the announced number are passed as they are.
+     */
+    @Override
+    public void step(double[] x) {
+        long k = index++;
+        if (iterations <= budget || k == 0 || k >= iterations) {
+            observer.step(x);
+            System.arraycopy(x, 0, previous, 0, n + 1);
+        } else if (k < iterations - 1) {
+            if (k == boundary) {
+                finishBucket();
+                bucket++;
+                boundary = start(bucket + 1);
+            }
+            current.add(k, x);
+            System.arraycopy(x, 0, last, 0, n + 1);
+        } else {
+            finishBucket();
+            chooseBefore(x);
+            observer.step(x);
+        }
+    }
+
+    /**
+     * @return first index k with (k - 1) * (budget - 2) / (iterations - 2) = bucket
+     */
+    private long start(long bucket) {
+        return 1 + (bucket * (iterations - 2) + budget - 3) / (budget - 2);
+    }
+
+    /**
+     * Passes the states of the unfinished buckets taking the last state solved as the end of the
+     * trajectory, needed if the solve stopped early.
+     */
+    public void flush() {
+        if (iterations <= budget || index <= 1 || index >= iterations) {
+            return;
+        }
+        finishBucket();
+        if (chooseBefore(last) != index - 1) {
+            observer.step(last);
+        }
+        index = iterations;
+    }
+
+    /**
+     * The current bucket is complete, its mean is the third vertex for the waiting one.
+     */
+    private void finishBucket() {
+        if (current.isEmpty()) {
+            return;
+        }
+        if (!waiting.isEmpty()) {
+            current.average(mean);
+            choose(waiting);
+        }
+        BucketExtremes swap = waiting;
+        waiting = current;
+        current = swap;
+        current.clear();
+    }
+
+    /**
+     * Chooses from the waiting bucket with the given state as the third vertex.
+     *
+     * @return index of the chosen state, or -1 if there is no waiting bucket
+     */
+    private long chooseBefore(double[] end) {
+        if (waiting.isEmpty()) {
+            return -1;
+        }
+        for (int c = 0; c < components.length; c++) {
+            mean[c] = end[components[c]];
+        }
+        long chosen = choose(waiting);
+        waiting.clear();
+        return chosen;
+    }
+
+    /**
+     * Passes the candidate making the largest triangle with the previous state and mean.
+     *
+     * @return index of the passed state
+     */
+    private long choose(BucketExtremes candidates) {
+        int size = candidates.sorted(order);
+        int best = order[0];
+        double bestArea = -1;
+        for (int k = 0; k < size; k++) {
+            int slot = order[k];
+            /** |u|^2 |v|^2 - (u.v)^2 is the squared area of the parallelogram on u and v in any dimension **/
+            double uu = 0, vv = 0, uv = 0;
+            for (int c = 0; c < components.length; c++) {
+                double u = candidates.component(slot, c) - previous[components[c]];
+                double v = mean[c] - previous[components[c]];
+                uu += u * u;
+                vv += v * v;
+                uv += u * v;
+            }
+            double area = uu * vv - uv * uv;
+            if (area > bestArea) {
+                bestArea = area;
+                best = slot;
+            }
+        }
+        double[] chosen = candidates.row(best);
+        observer.step(chosen);
+        System.arraycopy(chosen, 0, previous, 0, n + 1);
+        return candidates.index(best);
+    }
+}
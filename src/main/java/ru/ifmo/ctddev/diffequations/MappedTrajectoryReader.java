@@ -0,0 +1,146 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Random access to a file written by {@link MappedTrajectoryWriter}. Segments are mapped on first
+ * access, nothing is loaded into the heap.
+ */
+public class MappedTrajectoryReader implements Closeable {
+    private final FileChannel channel;
+    private final int n;
+    private final int width;
+    private final int methodCode;
+    private final double t0;
+    private final double dt;
+    private final long count;
+    private final long segmentRows;
+    private final DoubleBuffer[] segments;
+
+    /**
+     * @param path file written by {@link MappedTrajectoryWriter}
+     * @throws IOException if the file cannot be read or is not a trajectory
+     */
+    public MappedTrajectoryReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(MappedTrajectoryWriter.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                /** read the whole header **/
+            }
+            header.rewind();
+            if (header.getInt() != MappedTrajectoryWriter.MAGIC) {
+                throw new IOException("Not a trajectory file: " + path);
+            }
+            int version = header.getInt();
+            if (version != MappedTrajectoryWriter.VERSION) {
+                throw new IOException("Unsupported trajectory version " + version);
+            }
+            n = header.getInt();
+            methodCode = header.getInt();
+            t0 = header.getDouble();
+            dt = header.getDouble();
+            count = header.getLong();
+            /** a file that was not closed keeps its mapped tail, the count tells where the rows end **/
+            long rows = (channel.size() - MappedTrajectoryWriter.HEADER_BYTES) / (8L * (n + 1));
+            if (count < 0 || count > rows) {
+                throw new IOException("Trajectory file " + path + " records " + count + " rows but holds " + rows);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        width = n + 1;
+        segmentRows = MappedTrajectoryWriter.SEGMENT_BYTES / (8L * width);
+        segments = new DoubleBuffer[(int) ((count + segmentRows - 1) / segmentRows)];
+    }
+
+    public int getDimension() {
+        return n;
+    }
+
+    /**
+     * @return number of rows
+     */
+    public long size() {
+        return count;
+    }
+
+    public double getT0() {
+        return t0;
+    }
+
+    /**
+     * @return step, or 0 if it varies
+     */
+    public double getDt() {
+        return dt;
+    }
+
+    /**
+     * @return method of solving, or null if unknown
+     */
+    public DifferentialEquationSystem.Method getMethod() {
+        return DifferentialEquationSystem.Method.forCode(methodCode);
+    }
+
+    /**
+     * @param row row index
+     * @param i   component index, i = n for the time
+     * @return x_i of the row
+     */
+    public double get(long row, int i) {
+        return segment(row).get((int) (row % segmentRows) * width + i);
+    }
+
+    /**
+     * @param row row index
+     * @return t of the row
+     */
+    public double time(long row) {
+        return get(row, n);
+    }
+
+    /**
+     * Copies a row into the given array.
+     *
+     * @param row    row index
+     * @param result output of length at least n + 1, result[n] = t
+     */
+    public void copyRow(long row, double[] result) {
+        DoubleBuffer segment = segment(row).duplicate();
+        segment.position((int) (row % segmentRows) * width);
+        segment.get(result, 0, width);
+    }
+
+    private DoubleBuffer segment(long row) {
+        if (row < 0 || row >= count) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + count);
+        }
+        int index = (int) (row / segmentRows);
+        if (segments[index] == null) {
+            long first = index * segmentRows;
+            long rows = Math.min(segmentRows, count - first);
+            try {
+                segments[index] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        MappedTrajectoryWriter.HEADER_BYTES + first * width * 8, rows * width * 8)
+                        .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot map trajectory segment", e);
+            }
+        }
+        return segments[index];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,154 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes states straight into a memory-mapped file, so trajectories larger than the heap can be
+ * kept. The file is mapped in segments of {@link #SEGMENT_BYTES} and the operating system takes
+ * care of paging them out.
+ * <p>
+ * Layout, little-endian: a header of {@link #HEADER_BYTES} bytes
+ * (magic, version, n, method code or -1, t0, dt, number of rows) followed by rows of
+ * x_0..x_{n-1}, t. Read the file with {@link MappedTrajectoryReader}.
+ * <p>
+ * The header is mapped as well and the number of rows in it is updated on every step, so the file
+ * of a run that never reached {@link #close()} still tells how many of its rows were written.
+ */
+public class MappedTrajectoryWriter implements StepObserver, Closeable {
+    static final int MAGIC = 0x44455154;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int COUNT_OFFSET = 32;
+    static final int SEGMENT_BYTES = 1 << 26;
+    private final FileChannel channel;
+    private final int width;
+    private final long segmentRows;
+    private final MappedByteBuffer header;
+    private MappedByteBuffer mapped;
+    private DoubleBuffer segment;
+    private long segmentStart = 0;
+    private long count = 0;
+
+    /**
+     * @param path   file to create or overwrite
+     * @param n      number of components
+     * @param t0     initial time
+     * @param dt     step, or 0 if it varies
+     * @param method method of solving, or null if unknown
+     * @throws IOException if the file cannot be created
+     */
+    public MappedTrajectoryWriter(Path path, int n, double t0, double dt,
+                                  DifferentialEquationSystem.Method method) throws IOException {
+        this.width = n + 1;
+        this.segmentRows = SEGMENT_BYTES / (8L * width);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(n);
+        header.putInt(method == null ? -1 : method.getCode());
+        header.putDouble(t0);
+        header.putDouble(dt);
+        header.putLong(0);
+    }
+
+    @Override
+    public void step(double[] x) {
+        if (segment == null || !segment.hasRemaining()) {
+            roll();
+        }
+        segment.put(x, 0, width);
+        count++;
+        header.putLong(COUNT_OFFSET, count);
+    }
+
+    /**
+     * @return number of rows written
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Releases the full segment and maps the next one.
+     */
+    private void roll() {
+        if (mapped != null) {
+            segment = null;
+            release(mapped);
+            mapped = null;
+            segmentStart += segmentRows;
+        }
+        try {
+            long position = HEADER_BYTES + segmentStart * width * 8;
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, position, segmentRows * width * 8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot map trajectory segment", e);
+        }
+        segment = mapped.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    /**
+     * Flushes the last segment and the header, releases them and cuts the unused tail of the last
+     * segment. The mappings are released first, as some systems refuse to truncate a mapped file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            segment = null;
+            if (mapped != null) {
+                release(mapped);
+                mapped = null;
+            }
+            release(header);
+            channel.truncate(HEADER_BYTES + count * width * 8);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the buffer to the file and unmaps it at once instead of waiting for the garbage
+     * collector. The buffer must not be used afterwards.
+     */
+    static void release(MappedByteBuffer buffer) {
+        buffer.force();
+        try {
+            try {
+                /** Java 9 and later **/
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                invokeCleaner.invoke(field.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                /** Java 8 **/
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            /** the mapping stays until the buffer is collected **/
+        }
+    }
+}
@@ -1,30 +1,46 @@
 package ru.ifmo.ctddev.diffequations;
 
+import java.util.Arrays;
 import java.util.Random;
 
-public class Matrix {
+/**
+ * Square matrix stored row by row in one flat array, a[i * n + j] = A_ij.
+ * Products are computed by cache-sized blocks spread over the common fork/join pool.
+ */
+public class Matrix implements LinearOperator {
 
     private static final Random RANDOM = RandomHolder.random;
-    private int n;
-    private double[][] a;
+    /** side of a square block that fits the cache together with its neighbours **/
+    private static final int BLOCK = 64;
+    /** multiply-adds worth running in a separate task **/
+    private static final int TASK_WORK = 1 << 15;
+    private final int n;
+    private final double[] a;
     private double norm = -1;
 
     public Matrix(int size) {
         n = size;
-        a = new double[n][n];
+        a = new double[n * n];
     }
 
     public Matrix(double[][] m) {
         n = m.length;
-        a = m;
+        a = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(m[i], 0, a, i * n, n);
+        }
     }
 
-    private static double scalarProduct(double[] a, double[] b) {
-        double result = 0;
-        for (int i = 0; i < a.length; i++) {
-            result += a[i] * b[i];
-        }
-        return result;
+    private Matrix(int size, double[] data) {
+        n = size;
+        a = data;
+    }
+
+    /**
+     * @return rows processed by one task when a row costs n multiply-adds
+     */
+    private int rowGrain() {
+        return Math.max(1, TASK_WORK / Math.max(n, 1));
     }
 
     private void solutionsFill(double[] b, int min, int max) {
@@ -35,7 +51,7 @@ public class Matrix {
         for (int i = 0; i < n; ++i) {
             b[i] = 0;
             for (int j = 0; j < n; ++j) {
-                b[i] += a[i][j] * solutions[j];
+                b[i] += a[i * n + j] * solutions[j];
             }
         }
     }
@@ -43,7 +59,7 @@ public class Matrix {
     public void randomFill(double[] b, int min, int max) {
         for (int i = 0; i < n; ++i) {
             for (int j = 0; j < n; ++j) {
-                a[i][j] = RANDOM.nextInt(max - min + 1) + min;
+                a[i * n + j] = RANDOM.nextInt(max - min + 1) + min;
             }
         }
         solutionsFill(b, min, max);
@@ -53,9 +69,9 @@ public class Matrix {
         for (int i = 0; i < n; ++i) {
             for (int j = 0; j < n; ++j) {
                 if (i == j) {
-                    a[i][j] = RANDOM.nextInt(max - min + 1) + min;
+                    a[i * n + j] = RANDOM.nextInt(max - min + 1) + min;
                 } else {
-                    a[i][j] = 0;
+                    a[i * n + j] = 0;
                 }
             }
         }
@@ -65,7 +81,7 @@ public class Matrix {
     public void hilbertFill(double[] b, int min, int max) {
         for (int i = 0; i < n; ++i) {
             for (int j = 0; j < n; ++j) {
-                a[i][j] = 1.0 / (i + j + 1.0);
+                a[i * n + j] = 1.0 / (i + j + 1.0);
             }
         }
         solutionsFill(b, min, max);
@@ -75,10 +91,10 @@ public class Matrix {
         for (int i = 0; i < n; i++) {
             double sum = 0;
             for (int j = 0; j < n; j++) {
-                a[i][j] = RANDOM.nextInt(max - min + 1) + min;
-                sum += Math.abs(a[i][j]);
+                a[i * n + j] = RANDOM.nextInt(max - min + 1) + min;
+                sum += Math.abs(a[i * n + j]);
             }
-            a[i][i] = (1 - 2 * RANDOM.nextInt(2)) * (dominanceKoef * sum + 1);
+            a[i * n + i] = (1 - 2 * RANDOM.nextInt(2)) * (dominanceKoef * sum + 1);
         }
         solutionsFill(b, min, max);
     }
@@ -88,7 +104,7 @@ public class Matrix {
             for (int i = 0; i < n; ++i) {
                 double sum = 0;
                 for (int j = 0; j < n; ++j) {
-                    sum += Math.abs(a[i][j]);
+                    sum += Math.abs(a[i * n + j]);
                 }
                 if (norm < sum) {
                     norm = sum;
@@ -101,9 +117,7 @@ public class Matrix {
     public double[][] getMatrixCopy() {
         double[][] result = new double[n][n];
         for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                result[i][j] = a[i][j];
-            }
+            System.arraycopy(a, i * n, result[i], 0, n);
         }
         return result;
     }
@@ -112,12 +126,12 @@ public class Matrix {
         for (int i = 0; i < n; ++i) {
             double sum = 0;
             for (int j = 0; j < i; ++j) {
-                sum += Math.abs(a[i][j]);
+                sum += Math.abs(a[i * n + j]);
             }
             for (int j = i + 1; j < n; j++) {
-                sum += Math.abs(a[i][j]);
+                sum += Math.abs(a[i * n + j]);
             }
-            if (sum >= Math.abs(a[i][i])) {
+            if (sum >= Math.abs(a[i * n + i])) {
                 return false;
             }
         }
@@ -126,24 +140,159 @@ public class Matrix {
 
     public double[] transform(double[] vector) {
         double[] result = new double[n];
-        for (int i = 0; i < n; i++) {
-            result[i] = 0;
-            for (int j = 0; j < n; j++) {
-                result[i] += a[i][j] * vector[j];
-            }
-        }
+        transform(vector, result);
         return result;
     }
 
+    /**
+     * Calculates Av into the given array.
+     *
+     * @param vector v
+     * @param result output, Av
+     */
+    public void transform(final double[] vector, final double[] result) {
+        Parallel.forRange(0, n, rowGrain(), new Parallel.Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    double sum = 0;
+                    int ai = i * n;
+                    for (int j = 0; j < n; j++) {
+                        sum += a[ai + j] * vector[j];
+                    }
+                    result[i] = sum;
+                }
+            }
+        });
+    }
+
+    /**
+     * Calculates A^T v as a sum of rows weighted by v, every task owns a block of columns and
+     * walks the rows along the memory.
+     */
     public double[] transposeTransform(double[] vector) {
         double[] result = new double[n];
+        transposeTransform(vector, result);
+        return result;
+    }
+
+    /**
+     * Calculates A^T v into the given array.
+     *
+     * @param vector v
+     * @param result output, A^T v
+     */
+    public void transposeTransform(final double[] vector, final double[] result) {
+        Parallel.forRange(0, n, Math.max(BLOCK, rowGrain()), new Parallel.Range() {
+            @Override
+            public void run(int from, int to) {
+                Arrays.fill(result, from, to, 0);
+                for (int i = 0; i < n; i++) {
+                    double v = vector[i];
+                    if (v != 0) {
+                        int ai = i * n;
+                        for (int j = from; j < to; j++) {
+                            result[j] += a[ai + j] * v;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void apply(double[] vector, double[] result) {
+        transform(vector, result);
+    }
+
+    @Override
+    public void applyTranspose(double[] vector, double[] result) {
+        transposeTransform(vector, result);
+    }
+
+    /**
+     * Calculates the product AB block by block, tasks own blocks of rows of the result.
+     *
+     * @param other B
+     * @return AB
+     */
+    public Matrix multiply(Matrix other) {
+        if (other.n != n) {
+            throw new IllegalArgumentException("Sizes differ: " + n + " and " + other.n);
+        }
+        final double[] b = other.a;
+        final double[] c = new double[n * n];
+        Parallel.forRange(0, (n + BLOCK - 1) / BLOCK, 1, new Parallel.Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int ib = from * BLOCK; ib < Math.min(to * BLOCK, n); ib += BLOCK) {
+                    int iEnd = Math.min(ib + BLOCK, n);
+                    for (int kb = 0; kb < n; kb += BLOCK) {
+                        int kEnd = Math.min(kb + BLOCK, n);
+                        for (int jb = 0; jb < n; jb += BLOCK) {
+                            int jEnd = Math.min(jb + BLOCK, n);
+                            for (int i = ib; i < iEnd; i++) {
+                                for (int k = kb; k < kEnd; k++) {
+                                    double aik = a[i * n + k];
+                                    if (aik == 0) {
+                                        continue;
+                                    }
+                                    int ci = i * n, bk = k * n;
+                                    for (int j = jb; j < jEnd; j++) {
+                                        c[ci + j] += aik * b[bk + j];
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        });
+        return new Matrix(n, c);
+    }
+
+    /**
+     * Calculates A^T A as a sum of outer products of the rows, so every access goes along the
+     * memory. Only the upper triangle is computed, the lower one is its mirror.
+     *
+     * @return A^T A
+     */
+    public Matrix gram() {
+        final double[] c = new double[n * n];
+        Parallel.forRange(0, (n + BLOCK - 1) / BLOCK, 1, new Parallel.Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int ib = from * BLOCK; ib < Math.min(to * BLOCK, n); ib += BLOCK) {
+                    int iEnd = Math.min(ib + BLOCK, n);
+                    for (int kb = 0; kb < n; kb += BLOCK) {
+                        int kEnd = Math.min(kb + BLOCK, n);
+                        /** blocks of the upper triangle only, j >= i **/
+                        for (int jb = ib; jb < n; jb += BLOCK) {
+                            int jEnd = Math.min(jb + BLOCK, n);
+                            for (int i = ib; i < iEnd; i++) {
+                                int ci = i * n;
+                                for (int k = kb; k < kEnd; k++) {
+                                    double aki = a[k * n + i];
+                                    if (aki == 0) {
+                                        continue;
+                                    }
+                                    int ak = k * n;
+                                    for (int j = Math.max(i, jb); j < jEnd; j++) {
+                                        c[ci + j] += aki * a[ak + j];
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        });
         for (int i = 0; i < n; i++) {
-            result[i] = 0;
-            for (int j = 0; j < n; j++) {
-                result[i] += a[j][i] * vector[j];
+            for (int j = 0; j < i; j++) {
+                c[i * n + j] = c[j * n + i];
             }
         }
-        return result;
+        return new Matrix(n, c);
     }
 
     public double[] g(double[] b, double[] vector) {
@@ -162,19 +311,20 @@ public class Matrix {
         double[] d = new double[n];
 
         for (int i = 0; i < n; ++i) {
+            double diagonal = a[i * n + i];
             for (int j = 0; j < i; j++) {
-                b2[i][j] = -a[i][j] / a[i][i];
+                b2[i][j] = -a[i * n + j] / diagonal;
             }
             if (zeidelMod) {
                 for (int j = i + 1; j < n; j++) {
-                    b1[i][j] = -a[i][j] / a[i][i];
+                    b1[i][j] = -a[i * n + j] / diagonal;
                 }
             } else {
                 for (int j = i + 1; j < n; j++) {
-                    b2[i][j] = -a[i][j] / a[i][i];
+                    b2[i][j] = -a[i * n + j] / diagonal;
                 }
             }
-            d[i] = b[i] / a[i][i];
+            d[i] = b[i] / diagonal;
         }
 
         double major;
@@ -303,53 +453,51 @@ public class Matrix {
         return solution;
     }
 
-    private double[] conjugateGradientsMethod(double[] b, long r) {
-        double[][] sym = new double[n][n];
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                for (int k = 0; k < n; k++) {
-                    sym[i][j] += a[k][i] * a[k][j];
-                }
-            }
-        }
-        Matrix m = new Matrix(sym);
-        b = transposeTransform(b);
-        double[] x = new double[n];
-        for (int i = 0; i < n; i++) {
-            x[i] = RANDOM.nextDouble();
-        }
-        double[] p = m.g(b, x);
-        for (int i = 0; i < n; i++) {
-            p[i] *= -1;
-        }
-        /** With precise float operations it should give correct answer after n iterations.
-         *  However, we take r rounds of n iterations to be sure. */
-        for (int t = 0; t < n * r; t++) {
-            double[] Ap = m.transform(p);
-            double Apxp = scalarProduct(Ap, p);
-            if (Apxp == 0) break;
-            double[] g = m.g(b, x);
-            double alpha = -scalarProduct(g, p) / Apxp;
-            for (int i = 0; i < n; i++) {
-                x[i] += alpha * p[i];
-            }
-            g = m.g(b, x);
-            double beta = scalarProduct(Ap, g) / Apxp;
-            for (int i = 0; i < n; i++) {
-                p[i] = -g[i] + beta * p[i];
-            }
-        }
-        return x;
+    /**
+     * Factors a copy of the matrix, so systems with many right-hand sides are solved in O(n^2) each.
+     *
+     * @return LU factorization with partial pivoting
+     */
+    public LUDecomposition luDecomposition() {
+        return new LUDecomposition(getMatrixCopy());
+    }
+
+    /**
+     * Solves Ax = b with partial pivoting, cheaper than {@link #gaussMethod} with complete pivoting.
+     *
+     * @param vector b
+     * @return x
+     */
+    public double[] luMethod(double[] vector) {
+        return luDecomposition().solve(vector);
+    }
+
+    /**
+     * Solves Ax = b by conjugate gradients on the normal equations A^T A x = A^T b without
+     * forming A^T A, see {@link ConjugateGradients#solveNormal}. Every iteration costs two
+     * products with vectors, O(n^2).
+     *
+     * @param b             right-hand side
+     * @param maxIterations maximum number of iterations
+     * @param epsilon       relative residual, the iterations stop when ||b - Ax|| <= epsilon * ||b||
+     * @return x
+     */
+    public double[] conjugateGradientsMethod(double[] b, long maxIterations, double epsilon) {
+        return new ConjugateGradients(this).solveNormal(b, new double[n], maxIterations, epsilon);
     }
 
     public double get(int i, int j) {
-        return this.a[i][j];
+        return this.a[i * n + j];
     }
 
-    private static class InconsistentInputException extends Exception {
-        public InconsistentInputException(String s) {
-            super(s);
-        }
+    public void set(int i, int j, double value) {
+        this.a[i * n + j] = value;
+        norm = -1;
+    }
+
+    @Override
+    public int size() {
+        return n;
     }
 }
 
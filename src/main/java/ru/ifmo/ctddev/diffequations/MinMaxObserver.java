@@ -0,0 +1,102 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Reduces a trajectory to a point budget in one pass: the steps are split into buckets of equal
+ * length and every bucket passes on the states where a watched component reaches its minimum or
+ * maximum, in their order. Unlike taking every k-th state, spikes shorter than a bucket are kept.
+ * Only the extremes of the current bucket are stored.
+ */
+public class MinMaxObserver implements StepObserver {
+    private final long iterations;
+    private final long buckets;
+    private final StepObserver observer;
+    private final BucketExtremes extremes;
+    private final int[] order;
+    private long index = 0;
+    private long bucket = 0;
+    /** index of the first state of the next bucket **/
+    private long boundary;
+
+    /**
+     * Watches all components but the time.
+     *
+     * @param n          number of components
+     * @param iterations number of states the solve is going to pass
+     * @param budget     largest number of passed states
+     * @param observer   receiver of the passed states
+     */
+    public MinMaxObserver(int n, long iterations, int budget, StepObserver observer) {
+        this(n, allComponents(n), iterations, budget, observer);
+    }
+
+    /**
+     * @param n          number of components
+     * @param components watched components, i = n for the time
+     * @param iterations number of states the solve is going to pass
+     * @param budget     largest number of passed states, at least two per watched component
+     * @param observer   receiver of the passed states
+     */
+    public MinMaxObserver(int n, int[] components, long iterations, int budget, StepObserver observer) {
+        if (components.length == 0) {
+            throw new IllegalArgumentException("At least one component must be watched");
+        }
+        if (budget < 2 * components.length) {
+            throw new IllegalArgumentException("Budget " + budget + " is too small for " + components.length
+                    + " components");
+        }
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("Number of iterations must be positive: " + iterations);
+        }
+        this.iterations = iterations;
+        this.buckets = budget / (2 * components.length);
+        this.observer = observer;
+        extremes = new BucketExtremes(n, components);
+        order = new int[2 * components.length];
+        boundary = start(1);
+    }
+
+    static int[] allComponents(int n) {
+        int[] components = new int[n];
+        for (int i = 0; i < n; i++) {
+            components[i] = i;
+        }
+        return components;
+    }
+
+    /**
+     * States past the announced number get buckets of their own length.
+     */
+    @Override
+    public void step(double[] x) {
+        if (index == boundary) {
+            flush();
+            bucket++;
+            boundary = start(bucket + 1);
+        }
+        extremes.add(index++, x);
+        if (index == iterations) {
+            flush();
+        }
+    }
+
+    /**
+     * @return first index k with k * buckets / iterations = bucket
+     */
+    private long start(long bucket) {
+        return (bucket * iterations + buckets - 1) / buckets;
+    }
+
+    /**
+     * Passes the extremes of the unfinished bucket, needed if the solve stopped early.
+     */
+    public void flush() {
+        if (extremes.isEmpty()) {
+            return;
+        }
+        int size = extremes.sorted(order);
+        for (int k = 0; k < size; k++) {
+            observer.step(extremes.row(order[k]));
+        }
+        extremes.clear();
+    }
+}
@@ -0,0 +1,75 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits index ranges between the threads of the common fork/join pool.
+ */
+class Parallel {
+
+    /**
+     * Part of a loop over an index range.
+     */
+    interface Range {
+        void run(int from, int to);
+    }
+
+    private Parallel() {
+    }
+
+    /**
+     * Runs the range in halves until they are not longer than the grain, small ranges run in the
+     * calling thread.
+     *
+     * @param from  first index
+     * @param to    index after the last
+     * @param grain maximum length of a range processed by one task
+     * @param range loop body
+     */
+    static void forRange(int from, int to, int grain, Range range) {
+        forRange(ForkJoinPool.commonPool(), from, to, grain, range);
+    }
+
+    /**
+     * Runs the range in halves on the given pool.
+     *
+     * @param pool  pool to run the tasks
+     * @param from  first index
+     * @param to    index after the last
+     * @param grain maximum length of a range processed by one task
+     * @param range loop body
+     */
+    static void forRange(ForkJoinPool pool, int from, int to, int grain, Range range) {
+        if (to - from <= grain || pool.getParallelism() < 2) {
+            range.run(from, to);
+        } else {
+            pool.invoke(new Task(from, to, Math.max(grain, 1), range));
+        }
+    }
+
+    private static class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final Range range;
+
+        Task(int from, int to, int grain, Range range) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.range = range;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                range.run(from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Task(from, middle, grain, range), new Task(middle, to, grain, range));
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Right-hand side that depends on a vector of parameters, so one system can be integrated for
+ * many parameter sets by {@link Ensemble}. Parameters are mutable state of an instance,
+ * threads work with their own copies.
+ */
+public abstract class ParametricVectorFunction extends VectorFunction {
+
+    /**
+     * @return number of parameters
+     */
+    public abstract int getParameterCount();
+
+    /**
+     * Sets the parameters used by the following evaluations.
+     *
+     * @param parameters parameter values, length at least {@link #getParameterCount()}
+     */
+    public abstract void setParameters(double[] parameters);
+
+    /**
+     * @return independent instance with the same parameters
+     */
+    public abstract ParametricVectorFunction copy();
+}
@@ -0,0 +1,15 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Approximate inverse M^-1 of a symmetric positive definite matrix that is cheap to apply.
+ */
+public interface Preconditioner {
+
+    /**
+     * Solves Mz = r.
+     *
+     * @param r residual
+     * @param z output, M^-1 r
+     */
+    void apply(double[] r, double[] z);
+}
@@ -0,0 +1,285 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Linearly implicit Rosenbrock methods with an embedded error estimate. A step evaluates the
+ * Jacobian once, factors I - h * gamma * J once and solves one linear system per stage, there
+ * are no nonlinear iterations, so the cost of a step is known in advance. A rejected step keeps
+ * the Jacobian and only factors the matrix for the new step size.
+ * <p>
+ * Stages are written in the transformed form of Hairer and Wanner,
+ * (I / (h * gamma) - J) U_i = f(t + alpha_i * h, x + sum a_ij U_j) + sum c_ij U_j / h + d_i * h * df/dt,
+ * x_new = x + sum m_i U_i. The time derivative is taken by a forward difference, it is zero for
+ * autonomous systems. The continuous extension is the cubic Hermite interpolation, the derivative
+ * at the new state is the first stage of the next step.
+ */
+class RosenbrockStepper extends AdaptiveStepper {
+    /**
+     * Two stages, order 2(1), L-stable (Verwer, Spee, Blom, Hundsdorfer).
+     */
+    static final Coefficients ROS2;
+    /**
+     * Three stages, order 3(2), L-stable (Sandu, Verwer, Blom, Spee, Carmichael, Potra).
+     */
+    static final Coefficients ROS3;
+
+    static {
+        double gamma = 1 + 1 / Math.sqrt(2);
+        ROS2 = new Coefficients(2, gamma,
+                new double[][]{{}, {1 / gamma}},
+                new double[][]{{}, {-2 / gamma}},
+                new double[]{0, 1},
+                new double[]{gamma, -gamma},
+                new double[]{1.5 / gamma, 0.5 / gamma},
+                new double[]{1 / gamma, 0});
+        gamma = 0.43586652150845899941601945119356;
+        ROS3 = new Coefficients(3, gamma,
+                new double[][]{{}, {1}, {1, 0}},
+                new double[][]{{}, {-1.0156171083877702091975600115545}, {4.0759956452537699824805835358067,
+                        9.2076794298330791242156818474003}},
+                new double[]{0, gamma, gamma},
+                new double[]{gamma, 0.24291996454816804366592249683314, 2.1851380027664058511513169485832},
+                new double[]{1, 6.1697947043828245592553615689730, -0.42772256543218573326238373806514},
+                new double[]{0.5, 9.0777505760633715414271851897747, -0.65126326441030142953599283082713});
+    }
+
+    private static final double SAFETY = 0.9;
+    private static final double MIN_FACTOR = 0.2;
+    private static final double MAX_FACTOR = 6;
+
+    private final Coefficients method;
+    private final IterationMatrix iterationMatrix;
+    private final double[][] u;
+    private final double[] xNew;
+    private final double[] tmp;
+    private final double[] stage;
+    private final double[] timeDerivative;
+    private final double[] xOld;
+    private double[] f;
+    private double[] fOld;
+    private double h;
+    private boolean rejected = false;
+    private boolean jacobianCurrent = false;
+
+    /**
+     * @param method            coefficients, {@link #ROS2} or {@link #ROS3}
+     * @param absoluteTolerance absolute tolerance of the local error
+     * @param relativeTolerance relative tolerance of the local error
+     */
+    RosenbrockStepper(VectorFunction function, Coefficients method, double absoluteTolerance,
+                      double relativeTolerance, SolverStatistics statistics) {
+        super(function, absoluteTolerance, relativeTolerance, statistics);
+        this.method = method;
+        iterationMatrix = new IterationMatrix(function, statistics);
+        u = new double[method.m.length][n];
+        xNew = new double[n + 1];
+        xOld = new double[n + 1];
+        tmp = new double[n + 1];
+        stage = new double[n];
+        timeDerivative = new double[n];
+        f = new double[n];
+        fOld = new double[n];
+    }
+
+    /**
+     * Starts integration from x0 and guesses the initial step.
+     */
+    @Override
+    void reset(double[] x0) {
+        super.reset(x0);
+        iterationMatrix.reset();
+        evaluate(x, f);
+        rejected = false;
+        jacobianCurrent = false;
+        h = initialStep(f, method.order, tmp, stage);
+    }
+
+    /**
+     * Writes the derivatives and the previous state of the interpolation, the step size and the
+     * Jacobian with the time derivative.
+     */
+    @Override
+    void save(StateBuffer buffer) {
+        super.save(buffer);
+        buffer.put(f);
+        buffer.put(fOld);
+        buffer.put(xOld);
+        buffer.put(timeDerivative);
+        buffer.put(h);
+        buffer.put(rejected);
+        buffer.put(jacobianCurrent);
+        iterationMatrix.save(buffer);
+    }
+
+    @Override
+    void restore(StateBuffer buffer) {
+        super.restore(buffer);
+        buffer.get(f);
+        buffer.get(fOld);
+        buffer.get(xOld);
+        buffer.get(timeDerivative);
+        h = buffer.getDouble();
+        rejected = buffer.getBoolean();
+        jacobianCurrent = buffer.getBoolean();
+        iterationMatrix.restore(buffer);
+    }
+
+    /**
+     * Advances by exactly dt with as many steps of the error control as needed.
+     */
+    @Override
+    void step(double dt) {
+        double tEnd = x[n] + dt;
+        while (x[n] < tEnd) {
+            attempt(tEnd);
+        }
+    }
+
+    @Override
+    boolean attempt(double tEnd) {
+        double t = x[n];
+        double hStep = h;
+        boolean last = false;
+        if (t + hStep >= tEnd) {
+            hStep = tEnd - t;
+            last = true;
+        }
+        if (hStep <= 16 * Math.ulp(t)) {
+            throw new IllegalStateException("Step size underflow at t = " + t);
+        }
+        if (!jacobianCurrent) {
+            iterationMatrix.refresh(x);
+            differentiateTime();
+            jacobianCurrent = true;
+        }
+        double hGamma = hStep * method.gamma;
+        iterationMatrix.factor(x, hGamma);
+        for (int i = 0; i < u.length; i++) {
+            double[] fi = f;
+            if (i > 0) {
+                double[] a = method.a[i];
+                for (int j = 0; j < n; j++) {
+                    double sum = x[j];
+                    for (int l = 0; l < i; l++) {
+                        sum += a[l] * u[l][j];
+                    }
+                    tmp[j] = sum;
+                }
+                tmp[n] = t + method.alpha[i] * hStep;
+                evaluate(tmp, stage);
+                fi = stage;
+            }
+            double[] c = method.c[i];
+            double[] ui = u[i];
+            for (int j = 0; j < n; j++) {
+                double sum = 0;
+                for (int l = 0; l < i; l++) {
+                    sum += c[l] * u[l][j];
+                }
+                ui[j] = hGamma * (fi[j] + sum / hStep + method.d[i] * hStep * timeDerivative[j]);
+            }
+            iterationMatrix.solve(ui);
+        }
+
+        double error = 0;
+        for (int j = 0; j < n; j++) {
+            double value = x[j], e = 0;
+            for (int i = 0; i < u.length; i++) {
+                value += method.m[i] * u[i][j];
+                e += method.e[i] * u[i][j];
+            }
+            xNew[j] = value;
+            double scale = absoluteTolerance + relativeTolerance * Math.max(Math.abs(x[j]), Math.abs(value));
+            error += (e / scale) * (e / scale);
+        }
+        xNew[n] = last ? tEnd : t + hStep;
+        error = Math.sqrt(error / n);
+
+        double exponent = -1.0 / method.order;
+        if (error <= 1) {
+            statistics.acceptedSteps++;
+            accept();
+            double factor = error == 0 ? MAX_FACTOR
+                    : Math.min(MAX_FACTOR, Math.max(MIN_FACTOR, SAFETY * Math.pow(error, exponent)));
+            if (rejected) {
+                factor = Math.min(1, factor);
+            }
+            h = hStep * factor;
+            rejected = false;
+            return true;
+        } else {
+            statistics.rejectedSteps++;
+            h = hStep * Math.max(MIN_FACTOR, SAFETY * Math.pow(error, exponent));
+            rejected = true;
+            return false;
+        }
+    }
+
+    /**
+     * Moves to the new state keeping the old one for the interpolation.
+     */
+    private void accept() {
+        System.arraycopy(x, 0, xOld, 0, n + 1);
+        System.arraycopy(xNew, 0, x, 0, n + 1);
+        double[] swap = fOld;
+        fOld = f;
+        f = swap;
+        evaluate(x, f);
+        jacobianCurrent = false;
+    }
+
+    /**
+     * Forward difference of f by the time at the current state.
+     */
+    private void differentiateTime() {
+        double t = x[n];
+        System.arraycopy(x, 0, tmp, 0, n + 1);
+        tmp[n] = t + Math.sqrt(Math.ulp(1.0) * Math.max(1e-5, Math.abs(t)));
+        double delta = tmp[n] - t;
+        evaluate(tmp, timeDerivative);
+        for (int j = 0; j < n; j++) {
+            timeDerivative[j] = (timeDerivative[j] - f[j]) / delta;
+        }
+    }
+
+    @Override
+    void interpolate(double t, double[] result) {
+        double hOld = x[n] - xOld[n];
+        double theta = (t - xOld[n]) / hOld;
+        for (int j = 0; j < n; j++) {
+            double difference = x[j] - xOld[j];
+            result[j] = xOld[j] + theta * difference + theta * (theta - 1)
+                    * ((1 - 2 * theta) * difference + (theta - 1) * hOld * fOld[j] + theta * hOld * f[j]);
+        }
+    }
+
+    /**
+     * Coefficients of a Rosenbrock method in the transformed form.
+     */
+    static final class Coefficients {
+        /** order of the method, the embedded solution is one order lower **/
+        final int order;
+        final double gamma;
+        final double[][] a;
+        final double[][] c;
+        final double[] alpha;
+        final double[] d;
+        final double[] m;
+        /** m minus the weights of the embedded solution **/
+        final double[] e;
+
+        Coefficients(int order, double gamma, double[][] a, double[][] c, double[] alpha, double[] d,
+                     double[] m, double[] embedded) {
+            this.order = order;
+            this.gamma = gamma;
+            this.a = a;
+            this.c = c;
+            this.alpha = alpha;
+            this.d = d;
+            this.m = m;
+            this.e = new double[m.length];
+            for (int i = 0; i < m.length; i++) {
+                e[i] = m[i] - embedded[i];
+            }
+        }
+    }
+}
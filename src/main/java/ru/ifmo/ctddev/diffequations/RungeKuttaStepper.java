@@ -0,0 +1,39 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Classic Runge-Kutta method of order 4.
+ */
+class RungeKuttaStepper extends Stepper {
+    private final double[][] k;
+    private final double[] tmp;
+
+    RungeKuttaStepper(VectorFunction function, SolverStatistics statistics) {
+        super(function, statistics);
+        k = new double[4][n];
+        tmp = new double[n + 1];
+    }
+
+    @Override
+    void step(double dt) {
+        evaluate(x, k[0]);
+        for (int j = 0; j < n; j++) {
+            tmp[j] = x[j] + k[0][j] * dt / 2;
+        }
+        tmp[n] = x[n] + dt / 2;
+        evaluate(tmp, k[1]);
+        for (int j = 0; j < n; j++) {
+            tmp[j] = x[j] + k[1][j] * dt / 2;
+        }
+        tmp[n] = x[n] + dt / 2;
+        evaluate(tmp, k[2]);
+        for (int j = 0; j < n; j++) {
+            tmp[j] = x[j] + k[2][j] * dt;
+        }
+        tmp[n] = x[n] + dt;
+        evaluate(tmp, k[3]);
+        for (int j = 0; j < n; j++) {
+            x[j] += dt * (k[0][j] + 2 * k[1][j] + 2 * k[2][j] + k[3][j]) / 6;
+        }
+        x[n] += dt;
+    }
+}
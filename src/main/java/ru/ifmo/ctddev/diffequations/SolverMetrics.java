@@ -0,0 +1,165 @@
+package ru.ifmo.ctddev.diffequations;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Work of all solves of the process. Every finished solve adds its {@link SolverStatistics}
+ * once, to striped counters, so concurrent solves do not contend and the integration loops are
+ * not touched at all. {@link #register} publishes the counters through JMX.
+ */
+public final class SolverMetrics implements SolverMetricsMBean {
+    public static final String OBJECT_NAME = "ru.ifmo.ctddev.diffequations:type=SolverMetrics";
+    private static final SolverMetrics INSTANCE = new SolverMetrics();
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private final LongAdder solves = new LongAdder();
+    private final LongAdder acceptedSteps = new LongAdder();
+    private final LongAdder rejectedSteps = new LongAdder();
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder jacobianEvaluations = new LongAdder();
+    private final LongAdder factorizations = new LongAdder();
+    private final LongAdder newtonIterations = new LongAdder();
+    private final LongAdder lineSearchEvaluations = new LongAdder();
+    private final LongAdder jacobianNanos = new LongAdder();
+    private final LongAdder factorizationNanos = new LongAdder();
+    private final LongAdder lineSearchNanos = new LongAdder();
+    private final LongAdder wallNanos = new LongAdder();
+
+    private SolverMetrics() {
+    }
+
+    /**
+     * @return counters of the process
+     */
+    public static SolverMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the counters in the platform MBean server under {@link #OBJECT_NAME}, does
+     * nothing if they are registered already.
+     */
+    public static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (InstanceAlreadyExistsException e) {
+            /** registered by a concurrent call **/
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Adds the work of a finished solve.
+     */
+    void record(SolverStatistics statistics) {
+        solves.increment();
+        acceptedSteps.add(statistics.acceptedSteps);
+        rejectedSteps.add(statistics.rejectedSteps);
+        evaluations.add(statistics.evaluations);
+        jacobianEvaluations.add(statistics.jacobianEvaluations);
+        factorizations.add(statistics.factorizations);
+        newtonIterations.add(statistics.newtonIterations);
+        lineSearchEvaluations.add(statistics.lineSearchEvaluations);
+        jacobianNanos.add(statistics.jacobianNanos);
+        factorizationNanos.add(statistics.factorizationNanos);
+        lineSearchNanos.add(statistics.lineSearchNanos);
+        wallNanos.add(statistics.wallNanos);
+    }
+
+    /**
+     * @return number of finished solves
+     */
+    @Override
+    public long getSolves() {
+        return solves.sum();
+    }
+
+    @Override
+    public long getAcceptedSteps() {
+        return acceptedSteps.sum();
+    }
+
+    @Override
+    public long getRejectedSteps() {
+        return rejectedSteps.sum();
+    }
+
+    @Override
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    @Override
+    public long getJacobianEvaluations() {
+        return jacobianEvaluations.sum();
+    }
+
+    @Override
+    public long getFactorizations() {
+        return factorizations.sum();
+    }
+
+    @Override
+    public long getNewtonIterations() {
+        return newtonIterations.sum();
+    }
+
+    @Override
+    public long getLineSearchEvaluations() {
+        return lineSearchEvaluations.sum();
+    }
+
+    @Override
+    public long getJacobianTime() {
+        return jacobianNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getFactorizationTime() {
+        return factorizationNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getLineSearchTime() {
+        return lineSearchNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getWallTime() {
+        return wallNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void reset() {
+        solves.reset();
+        acceptedSteps.reset();
+        rejectedSteps.reset();
+        evaluations.reset();
+        jacobianEvaluations.reset();
+        factorizations.reset();
+        newtonIterations.reset();
+        lineSearchEvaluations.reset();
+        jacobianNanos.reset();
+        factorizationNanos.reset();
+        lineSearchNanos.reset();
+        wallNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "solves = " + getSolves() + ", accepted = " + getAcceptedSteps() + ", rejected = " + getRejectedSteps()
+                + ", evaluations = " + getEvaluations() + ", jacobians = " + getJacobianEvaluations()
+                + ", factorizations = " + getFactorizations() + ", newton iterations = " + getNewtonIterations()
+                + ", line search evaluations = " + getLineSearchEvaluations() + ", wall time = " + getWallTime() + " ms";
+    }
+}
@@ -0,0 +1,35 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Management interface of {@link SolverMetrics}, times are in milliseconds.
+ */
+public interface SolverMetricsMBean {
+    long getSolves();
+
+    long getAcceptedSteps();
+
+    long getRejectedSteps();
+
+    long getEvaluations();
+
+    long getJacobianEvaluations();
+
+    long getFactorizations();
+
+    long getNewtonIterations();
+
+    long getLineSearchEvaluations();
+
+    long getJacobianTime();
+
+    long getFactorizationTime();
+
+    long getLineSearchTime();
+
+    long getWallTime();
+
+    /**
+     * Sets all counters to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,103 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Point where a fixed grid solve stopped, together with everything the method needs to go on:
+ * the history of multistep methods, the step size, the continuous extension and the Jacobian
+ * of methods with error control. Continuing it with
+ * {@link DifferentialEquationSystem#resume(SolverState, long, StepObserver)} gives exactly the
+ * states a single longer solve would give. The state is immutable, so it may be continued more
+ * than once.
+ */
+public class SolverState {
+    private final DifferentialEquationSystem.Method method;
+    private final double absoluteTolerance;
+    private final double relativeTolerance;
+    private final double t0;
+    private final double dt;
+    private final long steps;
+    private final double[] state;
+    private final double[] snapshot;
+    private final SolverStatistics statistics;
+
+    /**
+     * @param state    last grid state, x[n] = t
+     * @param snapshot internal state of the stepper written by {@link Stepper#save}
+     */
+    SolverState(DifferentialEquationSystem.Method method, double absoluteTolerance, double relativeTolerance,
+                double t0, double dt, long steps, double[] state, double[] snapshot, SolverStatistics statistics) {
+        this.method = method;
+        this.absoluteTolerance = absoluteTolerance;
+        this.relativeTolerance = relativeTolerance;
+        this.t0 = t0;
+        this.dt = dt;
+        this.steps = steps;
+        this.state = state;
+        this.snapshot = snapshot;
+        this.statistics = statistics;
+    }
+
+    public DifferentialEquationSystem.Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return number of components n
+     */
+    public int getDimension() {
+        return state.length - 1;
+    }
+
+    /**
+     * @return initial time of the grid
+     */
+    public double getInitialTime() {
+        return t0;
+    }
+
+    /**
+     * @return step of the grid
+     */
+    public double getStep() {
+        return dt;
+    }
+
+    /**
+     * @return number of grid steps made from the initial time
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return time of the last grid state
+     */
+    public double getTime() {
+        return state[state.length - 1];
+    }
+
+    /**
+     * @return copy of the last grid state, x[n] = t
+     */
+    public double[] getState() {
+        return state.clone();
+    }
+
+    /**
+     * @return work done by the solve that stopped here
+     */
+    public SolverStatistics getStatistics() {
+        return statistics;
+    }
+
+    double getAbsoluteTolerance() {
+        return absoluteTolerance;
+    }
+
+    double getRelativeTolerance() {
+        return relativeTolerance;
+    }
+
+    StateBuffer getSnapshot() {
+        return new StateBuffer(snapshot);
+    }
+}
@@ -0,0 +1,166 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.Arrays;
+
+/**
+ * Work done by a single solve. The counters are plain fields of an object owned by one solve,
+ * so counting costs nothing in the hot loops; finished solves are added to the process-wide
+ * {@link SolverMetrics}.
+ */
+public class SolverStatistics {
+    long acceptedSteps;
+    long rejectedSteps;
+    long evaluations;
+    long jacobianEvaluations;
+    long factorizations;
+    long stiffSteps;
+    long newtonIterations;
+    long lineSearchEvaluations;
+    long jacobianNanos;
+    long factorizationNanos;
+    long lineSearchNanos;
+    long wallNanos;
+    private double[] switchTimes = new double[0];
+
+    /**
+     * @return number of steps taken into the solution
+     */
+    public long getAcceptedSteps() {
+        return acceptedSteps;
+    }
+
+    /**
+     * @return number of steps thrown away by the error control
+     */
+    public long getRejectedSteps() {
+        return rejectedSteps;
+    }
+
+    /**
+     * @return number of right-hand side evaluations
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * @return number of Jacobian matrix evaluations
+     */
+    public long getJacobianEvaluations() {
+        return jacobianEvaluations;
+    }
+
+    /**
+     * @return number of LU factorizations
+     */
+    public long getFactorizations() {
+        return factorizations;
+    }
+
+    /**
+     * @return number of Newton iterations of implicit methods and of
+     * {@link EquationSystem#universalMethod}
+     */
+    public long getNewtonIterations() {
+        return newtonIterations;
+    }
+
+    /**
+     * @return number of discrepancy evaluations in the line searches of
+     * {@link EquationSystem#universalMethod}
+     */
+    public long getLineSearchEvaluations() {
+        return lineSearchEvaluations;
+    }
+
+    /**
+     * @return time spent evaluating Jacobian matrices, ns
+     */
+    public long getJacobianNanos() {
+        return jacobianNanos;
+    }
+
+    /**
+     * @return time spent in LU factorizations, ns
+     */
+    public long getFactorizationNanos() {
+        return factorizationNanos;
+    }
+
+    /**
+     * @return time spent in line searches, ns
+     */
+    public long getLineSearchNanos() {
+        return lineSearchNanos;
+    }
+
+    /**
+     * @return wall time of the whole solve including the phases above, ns
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * @return number of accepted steps taken by the implicit method of
+     * {@link DifferentialEquationSystem.Method#Auto}
+     */
+    public long getStiffSteps() {
+        return stiffSteps;
+    }
+
+    /**
+     * @return number of switches between the explicit and the implicit method
+     */
+    public int getMethodSwitches() {
+        return switchTimes.length;
+    }
+
+    /**
+     * @return times of the switches between the explicit and the implicit method, the first one
+     * is to the implicit method
+     */
+    public double[] getSwitchTimes() {
+        return switchTimes.clone();
+    }
+
+    /**
+     * Records a switch between the explicit and the implicit method.
+     */
+    void switched(double t) {
+        switchTimes = Arrays.copyOf(switchTimes, switchTimes.length + 1);
+        switchTimes[switchTimes.length - 1] = t;
+    }
+
+    /**
+     * Adds the work of another solve to this one.
+     */
+    void add(SolverStatistics other) {
+        acceptedSteps += other.acceptedSteps;
+        rejectedSteps += other.rejectedSteps;
+        evaluations += other.evaluations;
+        jacobianEvaluations += other.jacobianEvaluations;
+        factorizations += other.factorizations;
+        stiffSteps += other.stiffSteps;
+        newtonIterations += other.newtonIterations;
+        lineSearchEvaluations += other.lineSearchEvaluations;
+        jacobianNanos += other.jacobianNanos;
+        factorizationNanos += other.factorizationNanos;
+        lineSearchNanos += other.lineSearchNanos;
+        wallNanos += other.wallNanos;
+        int length = switchTimes.length;
+        switchTimes = Arrays.copyOf(switchTimes, length + other.switchTimes.length);
+        System.arraycopy(other.switchTimes, 0, switchTimes, length, other.switchTimes.length);
+    }
+
+    @Override
+    public String toString() {
+        return "accepted = " + acceptedSteps + ", rejected = " + rejectedSteps + ", evaluations = " + evaluations
+                + ", jacobians = " + jacobianEvaluations + ", factorizations = " + factorizations
+                + ", newton iterations = " + newtonIterations + ", line search evaluations = " + lineSearchEvaluations
+                + ", stiff steps = " + stiffSteps + ", switches = " + switchTimes.length
+                + ", jacobian time = " + jacobianNanos / 1000000 + " ms, factorization time = "
+                + factorizationNanos / 1000000 + " ms, line search time = " + lineSearchNanos / 1000000
+                + " ms, wall time = " + wallNanos / 1000000 + " ms";
+    }
+}
@@ -0,0 +1,457 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Square matrix in compressed sparse row format: the nonzeros of row i are
+ * values[rowStart[i]..rowStart[i + 1]-1] in the columns columns[rowStart[i]..rowStart[i + 1]-1],
+ * sorted by column. Every operation costs O(nnz) instead of O(n^2).
+ */
+public class SparseMatrix implements LinearOperator {
+
+    private static final Random RANDOM = RandomHolder.random;
+    /** nonzeros worth running in a separate task **/
+    private static final int TASK_WORK = 1 << 15;
+    private final int n;
+    private final int[] rowStart;
+    private final int[] columns;
+    private final double[] values;
+
+    /**
+     * Wraps arrays in compressed sparse row format, columns of every row must be sorted and distinct.
+     *
+     * @param n        size
+     * @param rowStart rowStart[i] is the index of the first nonzero of row i, rowStart[n] = nnz
+     * @param columns  column of every nonzero
+     * @param values   value of every nonzero
+     */
+    public SparseMatrix(int n, int[] rowStart, int[] columns, double[] values) {
+        if (rowStart.length != n + 1 || columns.length < rowStart[n] || values.length < rowStart[n]) {
+            throw new IllegalArgumentException("Inconsistent compressed sparse row arrays");
+        }
+        this.n = n;
+        this.rowStart = rowStart;
+        this.columns = columns;
+        this.values = values;
+    }
+
+    /**
+     * @param m dense matrix
+     * @return sparse matrix with the nonzeros of m
+     */
+    public static SparseMatrix of(Matrix m) {
+        Builder builder = new Builder(m.size());
+        for (int i = 0; i < m.size(); i++) {
+            for (int j = 0; j < m.size(); j++) {
+                if (m.get(i, j) != 0) {
+                    builder.add(i, j, m.get(i, j));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @return number of stored nonzeros
+     */
+    public int nonZeros() {
+        return rowStart[n];
+    }
+
+    public double get(int i, int j) {
+        int k = Arrays.binarySearch(columns, rowStart[i], rowStart[i + 1], j);
+        return k >= 0 ? values[k] : 0;
+    }
+
+    /**
+     * @return Av
+     */
+    public double[] transform(double[] vector) {
+        double[] result = new double[n];
+        transform(vector, result);
+        return result;
+    }
+
+    /**
+     * Calculates Av into the given array.
+     *
+     * @param vector v
+     * @param result output, Av
+     */
+    public void transform(final double[] vector, final double[] result) {
+        Parallel.forRange(0, n, Math.max(1, (int) ((long) TASK_WORK * n / Math.max(nonZeros(), 1))),
+                new Parallel.Range() {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            double sum = 0;
+                            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                                sum += values[k] * vector[columns[k]];
+                            }
+                            result[i] = sum;
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @return A^T v
+     */
+    public double[] transposeTransform(double[] vector) {
+        double[] result = new double[n];
+        transposeTransform(vector, result);
+        return result;
+    }
+
+    /**
+     * Calculates A^T v into the given array.
+     *
+     * @param vector v
+     * @param result output, A^T v
+     */
+    public void transposeTransform(double[] vector, double[] result) {
+        Arrays.fill(result, 0);
+        for (int i = 0; i < n; i++) {
+            double v = vector[i];
+            if (v != 0) {
+                for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                    result[columns[k]] += values[k] * v;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void apply(double[] vector, double[] result) {
+        transform(vector, result);
+    }
+
+    @Override
+    public void applyTranspose(double[] vector, double[] result) {
+        transposeTransform(vector, result);
+    }
+
+    /**
+     * @return diagonal, zero where it is not stored
+     */
+    public double[] diagonal() {
+        double[] diagonal = new double[n];
+        for (int i = 0; i < n; i++) {
+            diagonal[i] = get(i, i);
+        }
+        return diagonal;
+    }
+
+    /**
+     * Simple iteration, Gauss-Seidel or successive over-relaxation for Ax = b without forming
+     * the iteration matrices. A sweep costs O(nnz).
+     *
+     * @param b             right-hand side
+     * @param maxIterations maximum number of sweeps
+     * @param epsilon       precision of x
+     * @param zeidelMod     use the new values of the components as soon as they are computed
+     * @param relaxation    weight of the new value, 1 for the plain methods
+     * @param check         whether to throw when the convergence is not guaranteed
+     * @return x
+     * @throws InconsistentInputException if check is set and ||B|| >= 1
+     */
+    public double[] jacobiMethod(double[] b, long maxIterations, double epsilon,
+                                 boolean zeidelMod, double relaxation, boolean check) throws InconsistentInputException {
+        double[] diagonal = diagonal();
+        /** ||B||, B = -D^-1 (A - D) **/
+        double q = 0;
+        for (int i = 0; i < n; i++) {
+            if (diagonal[i] == 0) {
+                throw new InconsistentInputException("Zero on the diagonal in row " + i + "\n");
+            }
+            double sum = 0;
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                if (columns[k] != i) {
+                    sum += Math.abs(values[k]);
+                }
+            }
+            q = Math.max(q, sum / Math.abs(diagonal[i]));
+        }
+        if (check && q >= 1) {
+            throw new InconsistentInputException(String.format("Inconsistent: ||B|| = %10f >= 1\n", q));
+        }
+        double major = q > 0 && q < 1 ? epsilon * (1 - q) / q : epsilon;
+
+        double[] x = new double[n];
+        for (int i = 0; i < n; ++i) {
+            x[i] = RANDOM.nextDouble();
+        }
+        double[] next = zeidelMod ? x : new double[n];
+        for (long iteration = 0; iteration < maxIterations; iteration++) {
+            double max = 0;
+            for (int i = 0; i < n; i++) {
+                double value = b[i];
+                for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                    if (columns[k] != i) {
+                        value -= values[k] * x[columns[k]];
+                    }
+                }
+                value = relaxation * value / diagonal[i] + (1 - relaxation) * x[i];
+                max = Math.max(max, Math.abs(value - x[i]));
+                next[i] = value;
+            }
+            if (!zeidelMod) {
+                double[] swap = x;
+                x = next;
+                next = swap;
+            }
+            if (max < major) {
+                break;
+            }
+        }
+        return x;
+    }
+
+    /**
+     * Conjugate gradients for a symmetric positive definite matrix, one product with A per iteration.
+     * Use {@link ConjugateGradients} directly to pass a preconditioner or to reuse the work vectors.
+     *
+     * @param b             right-hand side
+     * @param maxIterations maximum number of iterations
+     * @param epsilon       relative residual, the iterations stop when ||b - Ax|| <= epsilon * ||b||
+     * @return x
+     */
+    public double[] conjugateGradientsMethod(double[] b, long maxIterations, double epsilon) {
+        return new ConjugateGradients(this).solve(b, new double[n], maxIterations, epsilon);
+    }
+
+    /**
+     * @return M = D, the diagonal of the matrix
+     */
+    public Preconditioner jacobiPreconditioner() {
+        final double[] inverse = diagonal();
+        for (int i = 0; i < n; i++) {
+            if (inverse[i] == 0) {
+                throw new ArithmeticException("Zero on the diagonal in row " + i);
+            }
+            inverse[i] = 1 / inverse[i];
+        }
+        return new Preconditioner() {
+            @Override
+            public void apply(double[] r, double[] z) {
+                for (int i = 0; i < n; i++) {
+                    z[i] = inverse[i] * r[i];
+                }
+            }
+        };
+    }
+
+    /**
+     * Symmetric successive over-relaxation for a symmetric matrix A = L + D + L^T,
+     * M = (D / w + L) (D / w)^-1 (D / w + L^T) w / (2 - w). Applied by a forward and a backward
+     * sweep over the nonzeros.
+     *
+     * @param relaxation w, 0 < w < 2
+     * @return SSOR preconditioner
+     */
+    public Preconditioner ssorPreconditioner(final double relaxation) {
+        if (relaxation <= 0 || relaxation >= 2) {
+            throw new IllegalArgumentException("Relaxation must be in (0, 2): " + relaxation);
+        }
+        final double[] diagonal = diagonal();
+        for (int i = 0; i < n; i++) {
+            if (diagonal[i] == 0) {
+                throw new ArithmeticException("Zero on the diagonal in row " + i);
+            }
+            diagonal[i] /= relaxation;
+        }
+        final double scale = (2 - relaxation) / relaxation;
+        return new Preconditioner() {
+            @Override
+            public void apply(double[] r, double[] z) {
+                /** (D / w + L) y = r **/
+                for (int i = 0; i < n; i++) {
+                    double value = r[i];
+                    for (int k = rowStart[i]; k < rowStart[i + 1] && columns[k] < i; k++) {
+                        value -= values[k] * z[columns[k]];
+                    }
+                    z[i] = value / diagonal[i];
+                }
+                /** (D / w + L^T) z = (2 - w) / w * D / w * y, the rows of L^T are the rows of A above the diagonal **/
+                for (int i = n - 1; i >= 0; i--) {
+                    double value = scale * diagonal[i] * z[i];
+                    for (int k = rowStart[i + 1] - 1; k >= rowStart[i] && columns[k] > i; k--) {
+                        value -= values[k] * z[columns[k]];
+                    }
+                    z[i] = value / diagonal[i];
+                }
+            }
+        };
+    }
+
+    /**
+     * Incomplete Cholesky factorization without fill-in, IC(0): M = LL^T where L has the nonzero
+     * pattern of the lower triangle of the symmetric matrix.
+     *
+     * @return IC(0) preconditioner
+     * @throws ArithmeticException if a pivot is not positive, which may happen for matrices that
+     *                             are not diagonally dominant
+     */
+    public Preconditioner incompleteCholesky() {
+        /** lower triangle of every row, the diagonal is the last element of a row **/
+        final int[] lowerStart = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            int count = 0;
+            for (int k = rowStart[i]; k < rowStart[i + 1] && columns[k] <= i; k++) {
+                count++;
+            }
+            if (count == 0 || columns[rowStart[i] + count - 1] != i) {
+                throw new ArithmeticException("Zero on the diagonal in row " + i);
+            }
+            lowerStart[i + 1] = lowerStart[i] + count;
+        }
+        final int[] lowerColumns = new int[lowerStart[n]];
+        final double[] lower = new double[lowerStart[n]];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(columns, rowStart[i], lowerColumns, lowerStart[i], lowerStart[i + 1] - lowerStart[i]);
+            System.arraycopy(values, rowStart[i], lower, lowerStart[i], lowerStart[i + 1] - lowerStart[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            int diagonal = lowerStart[i + 1] - 1;
+            for (int k = lowerStart[i]; k <= diagonal; k++) {
+                int j = lowerColumns[k];
+                /** sum of L_ip L_jp over the common pattern of rows i and j, p < j **/
+                double sum = 0;
+                int a = lowerStart[i], b = lowerStart[j];
+                while (a < k && b < lowerStart[j + 1] - 1) {
+                    if (lowerColumns[a] == lowerColumns[b]) {
+                        sum += lower[a++] * lower[b++];
+                    } else if (lowerColumns[a] < lowerColumns[b]) {
+                        a++;
+                    } else {
+                        b++;
+                    }
+                }
+                if (k < diagonal) {
+                    lower[k] = (lower[k] - sum) / lower[lowerStart[j + 1] - 1];
+                } else {
+                    double pivot = lower[k] - sum;
+                    if (pivot <= 0) {
+                        throw new ArithmeticException("Incomplete Cholesky breakdown in row " + i);
+                    }
+                    lower[k] = Math.sqrt(pivot);
+                }
+            }
+        }
+        return new Preconditioner() {
+            @Override
+            public void apply(double[] r, double[] z) {
+                /** Ly = r **/
+                for (int i = 0; i < n; i++) {
+                    double value = r[i];
+                    int diagonal = lowerStart[i + 1] - 1;
+                    for (int k = lowerStart[i]; k < diagonal; k++) {
+                        value -= lower[k] * z[lowerColumns[k]];
+                    }
+                    z[i] = value / lower[diagonal];
+                }
+                /** L^T z = y column by column of L^T, that is row by row of L **/
+                for (int i = n - 1; i >= 0; i--) {
+                    int diagonal = lowerStart[i + 1] - 1;
+                    z[i] /= lower[diagonal];
+                    for (int k = lowerStart[i]; k < diagonal; k++) {
+                        z[lowerColumns[k]] -= lower[k] * z[i];
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Collects nonzeros in any order, values added to the same position are summed.
+     */
+    public static class Builder {
+        private final int n;
+        private int[] rows = new int[16];
+        private int[] cols = new int[16];
+        private double[] vals = new double[16];
+        private int size = 0;
+
+        public Builder(int n) {
+            this.n = n;
+        }
+
+        public Builder add(int i, int j, double value) {
+            if (i < 0 || i >= n || j < 0 || j >= n) {
+                throw new IndexOutOfBoundsException("(" + i + ", " + j + ") in matrix of size " + n);
+            }
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, 2 * size);
+                cols = Arrays.copyOf(cols, 2 * size);
+                vals = Arrays.copyOf(vals, 2 * size);
+            }
+            rows[size] = i;
+            cols[size] = j;
+            vals[size] = value;
+            size++;
+            return this;
+        }
+
+        public SparseMatrix build() {
+            /** counting sort by rows **/
+            int[] rowStart = new int[n + 1];
+            for (int k = 0; k < size; k++) {
+                rowStart[rows[k] + 1]++;
+            }
+            for (int i = 0; i < n; i++) {
+                rowStart[i + 1] += rowStart[i];
+            }
+            int[] position = Arrays.copyOf(rowStart, n);
+            int[] columns = new int[size];
+            double[] values = new double[size];
+            for (int k = 0; k < size; k++) {
+                int p = position[rows[k]]++;
+                columns[p] = cols[k];
+                values[p] = vals[k];
+            }
+            /** sort every row by columns and merge duplicates **/
+            int nonZeros = 0;
+            int[] compressedStart = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                int from = rowStart[i], to = rowStart[i + 1];
+                sortRow(columns, values, from, to);
+                compressedStart[i] = nonZeros;
+                for (int k = from; k < to; k++) {
+                    if (nonZeros > compressedStart[i] && columns[nonZeros - 1] == columns[k]) {
+                        values[nonZeros - 1] += values[k];
+                    } else {
+                        columns[nonZeros] = columns[k];
+                        values[nonZeros] = values[k];
+                        nonZeros++;
+                    }
+                }
+            }
+            compressedStart[n] = nonZeros;
+            return new SparseMatrix(n, compressedStart, columns, values);
+        }
+
+        /**
+         * Insertion sort, rows are short.
+         */
+        private static void sortRow(int[] columns, double[] values, int from, int to) {
+            for (int k = from + 1; k < to; k++) {
+                int column = columns[k];
+                double value = values[k];
+                int p = k - 1;
+                while (p >= from && columns[p] > column) {
+                    columns[p + 1] = columns[p];
+                    values[p + 1] = values[p];
+                    p--;
+                }
+                columns[p + 1] = column;
+                values[p + 1] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.Arrays;
+
+/**
+ * Flat sequence of numbers a stepper writes its internal state to and reads it back from in the
+ * same order, see {@link Stepper#save} and {@link Stepper#restore}. Integers and flags are stored
+ * as doubles, they are small enough to be exact.
+ */
+class StateBuffer {
+    private double[] data;
+    private int size;
+    private int position;
+
+    /**
+     * Creates an empty buffer to write to.
+     */
+    StateBuffer() {
+        data = new double[64];
+    }
+
+    /**
+     * @param data values written before, read from the beginning
+     */
+    StateBuffer(double[] data) {
+        this.data = data;
+        size = data.length;
+    }
+
+    void put(double value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, 2 * size);
+        }
+        data[size++] = value;
+    }
+
+    void put(boolean value) {
+        put(value ? 1 : 0);
+    }
+
+    void put(double[] values) {
+        for (double value : values) {
+            put(value);
+        }
+    }
+
+    double getDouble() {
+        if (position == size) {
+            throw new IllegalArgumentException("Solver state is truncated");
+        }
+        return data[position++];
+    }
+
+    int getInt() {
+        return (int) getDouble();
+    }
+
+    boolean getBoolean() {
+        return getDouble() != 0;
+    }
+
+    /**
+     * @param values output, as many values as it has are read
+     */
+    void get(double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getDouble();
+        }
+    }
+
+    /**
+     * @return whether every written value has been read
+     */
+    boolean isConsumed() {
+        return position == size;
+    }
+
+    /**
+     * @return copy of the written values
+     */
+    double[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+}
@@ -0,0 +1,15 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * Receives the states of an integration one by one, so the solver does not have to keep them.
+ */
+public interface StepObserver {
+
+    /**
+     * Called after every accepted step. The array is reused by the solver and must be copied
+     * if it has to be kept.
+     *
+     * @param x state, x[i] = x_i(t), i = 0..n-1, x[n] = t
+     */
+    void step(double[] x);
+}
@@ -0,0 +1,66 @@
+package ru.ifmo.ctddev.diffequations;
+
+/**
+ * One integration method bound to a right-hand side. Owns the current state and the workspace,
+ * so a solve does not allocate per step.
+ */
+abstract class Stepper {
+    final VectorFunction function;
+    final int n;
+    final SolverStatistics statistics;
+    final double[] x;
+
+    Stepper(VectorFunction function, SolverStatistics statistics) {
+        this.function = function;
+        this.n = function.getDimension();
+        this.statistics = statistics;
+        this.x = new double[n + 1];
+    }
+
+    /**
+     * Starts integration from x0, forgetting everything about the previous one.
+     *
+     * @param x0 initial state, x0[i] = x0_i, i = 0..n-1, x0[n] = t0
+     */
+    void reset(double[] x0) {
+        System.arraycopy(x0, 0, x, 0, n + 1);
+    }
+
+    /**
+     * Advances the state by exactly dt.
+     *
+     * @param dt step
+     */
+    abstract void step(double dt);
+
+    /**
+     * Writes everything the following steps depend on, {@link #restore} of a stepper of the same
+     * method and dimension continues exactly from here.
+     *
+     * @param buffer output
+     */
+    void save(StateBuffer buffer) {
+        buffer.put(x);
+    }
+
+    /**
+     * Replaces the state by the one written by {@link #save}, used instead of {@link #reset}.
+     *
+     * @param buffer input, read in the order it was written
+     */
+    void restore(StateBuffer buffer) {
+        buffer.get(x);
+    }
+
+    /**
+     * @return current state, x[n] = t
+     */
+    double[] getState() {
+        return x;
+    }
+
+    void evaluate(double[] x, double[] result) {
+        function.calculate(x, result);
+        statistics.evaluations++;
+    }
+}
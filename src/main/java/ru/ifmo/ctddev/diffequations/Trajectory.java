@@ -0,0 +1,176 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.Arrays;
+
+/**
+ * States of an integration stored row by row in flat arrays, row k holds x_0..x_{n-1} and t
+ * of the state after k + 1 steps. Rows live in one contiguous array while it fits, longer
+ * trajectories are split into chunks of equal size.
+ */
+public class Trajectory implements StepObserver {
+    private static final int MAX_CHUNK_ELEMENTS = 1 << 30;
+    private static final int INITIAL_ROWS = 1024;
+    private final int n;
+    private final int width;
+    private final int chunkRows;
+    private double[][] chunks;
+    private long size = 0;
+
+    /**
+     * @param n number of components
+     */
+    public Trajectory(int n) {
+        this(n, INITIAL_ROWS);
+    }
+
+    /**
+     * @param n        number of components
+     * @param capacity expected number of rows
+     */
+    public Trajectory(int n, long capacity) {
+        this.n = n;
+        this.width = n + 1;
+        this.chunkRows = MAX_CHUNK_ELEMENTS / width;
+        long first = Math.max(1, Math.min(capacity, chunkRows));
+        chunks = new double[][]{new double[(int) first * width]};
+    }
+
+    @Override
+    public void step(double[] x) {
+        int chunk = (int) (size / chunkRows);
+        int offset = (int) (size % chunkRows) * width;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunk + 1);
+            chunks[chunk] = new double[chunkRows * width];
+        } else if (offset == chunks[chunk].length) {
+            /** only the first chunk grows, the others are allocated full **/
+            chunks[chunk] = Arrays.copyOf(chunks[chunk], (int) Math.min(2L * offset, (long) chunkRows * width));
+        }
+        System.arraycopy(x, 0, chunks[chunk], offset, width);
+        size++;
+    }
+
+    /**
+     * @return number of components n
+     */
+    public int getDimension() {
+        return n;
+    }
+
+    /**
+     * @return number of rows
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return bytes taken by the stored values including the reserved capacity
+     */
+    public long getMemory() {
+        long elements = 0;
+        for (double[] chunk : chunks) {
+            elements += chunk.length;
+        }
+        return 8 * elements;
+    }
+
+    /**
+     * @param row row index
+     * @param i   component index, i = n for the time
+     * @return x_i of the row
+     */
+    public double get(long row, int i) {
+        return chunks[(int) (row / chunkRows)][(int) (row % chunkRows) * width + i];
+    }
+
+    /**
+     * @param row row index
+     * @return t of the row
+     */
+    public double time(long row) {
+        return get(row, n);
+    }
+
+    /**
+     * Copies a row into the given array.
+     *
+     * @param row    row index
+     * @param result output of length at least n + 1, result[n] = t
+     */
+    public void copyRow(long row, double[] result) {
+        System.arraycopy(chunks[(int) (row / chunkRows)], (int) (row % chunkRows) * width, result, 0, width);
+    }
+
+    /**
+     * @param row row index
+     * @return view of the row backed by the trajectory storage, valid until more rows are added
+     */
+    public Row row(long row) {
+        return new Row(chunks[(int) (row / chunkRows)], (int) (row % chunkRows) * width);
+    }
+
+    /**
+     * @param i component index, i = n for the time
+     * @return view of the component over all rows backed by the trajectory storage
+     */
+    public Column column(int i) {
+        if (i < 0 || i > n) {
+            throw new IndexOutOfBoundsException("Column " + i + " of " + width);
+        }
+        return new Column(i);
+    }
+
+    /**
+     * @return rows as separate arrays of x_0..x_{n-1}, as returned by
+     * {@link DifferentialEquationSystem#solve(DifferentialEquationSystem.Method, double[], double, int)}
+     */
+    public double[][] toArray() {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many rows for an array: " + size);
+        }
+        double[][] result = new double[(int) size][n];
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(chunks[row / chunkRows], (row % chunkRows) * width, result[row], 0, n);
+        }
+        return result;
+    }
+
+    public final class Row {
+        private final double[] data;
+        private final int offset;
+
+        private Row(double[] data, int offset) {
+            this.data = data;
+            this.offset = offset;
+        }
+
+        /**
+         * @param i component index, i = n for the time
+         * @return x_i
+         */
+        public double get(int i) {
+            return data[offset + i];
+        }
+
+        public double time() {
+            return data[offset + n];
+        }
+    }
+
+    public final class Column {
+        private final int i;
+
+        private Column(int i) {
+            this.i = i;
+        }
+
+        public double get(long row) {
+            return Trajectory.this.get(row, i);
+        }
+
+        public long size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Solved trajectories kept for reuse, bounded by the memory they take. When a new trajectory
+ * does not fit, the least recently used ones are dropped. Keys are compared by equals, so they
+ * have to describe everything the solve depends on. A trajectory may be stored with the solver
+ * state at its last row, so that it can be extended later instead of solved again. Safe for use
+ * from several threads.
+ */
+public class TrajectoryCache {
+    private final long maxMemory;
+    private final LinkedHashMap<Object, Entry> trajectories = new LinkedHashMap<>(16, 0.75f, true);
+    private long memory = 0;
+
+    /**
+     * @param maxMemory largest total {@link Trajectory#getMemory} of the kept trajectories, bytes
+     */
+    public TrajectoryCache(long maxMemory) {
+        if (maxMemory <= 0) {
+            throw new IllegalArgumentException("Memory limit must be positive: " + maxMemory);
+        }
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Tells in advance whether a trajectory is worth recording, so one that would not be kept is
+     * not allocated at all.
+     *
+     * @param bytes memory the trajectory is going to take
+     * @return whether a trajectory of that size can be stored
+     */
+    public boolean fits(long bytes) {
+        return bytes <= maxMemory;
+    }
+
+    /**
+     * @param key description of the solve
+     * @return trajectory stored under the key, or null
+     */
+    public synchronized Trajectory get(Object key) {
+        Entry entry = trajectories.get(key);
+        return entry == null ? null : entry.trajectory;
+    }
+
+    /**
+     * @param key description of the solve
+     * @return state at the last row of the trajectory stored under the key, or null
+     */
+    public synchronized SolverState getState(Object key) {
+        Entry entry = trajectories.get(key);
+        return entry == null ? null : entry.state;
+    }
+
+    /**
+     * Stores the trajectory, evicting the least recently used ones until it fits. A trajectory
+     * larger than the whole limit is not stored.
+     *
+     * @param key        description of the solve
+     * @param trajectory complete trajectory, must not be changed afterwards
+     */
+    public void put(Object key, Trajectory trajectory) {
+        put(key, trajectory, null);
+    }
+
+    /**
+     * Stores the trajectory together with the state to extend it from.
+     *
+     * @param key        description of the solve
+     * @param trajectory complete trajectory, must not be changed afterwards
+     * @param state      state after the last row, or null
+     */
+    public synchronized void put(Object key, Trajectory trajectory, SolverState state) {
+        long size = trajectory.getMemory();
+        if (size > maxMemory) {
+            return;
+        }
+        Entry old = trajectories.put(key, new Entry(trajectory, state));
+        if (old != null) {
+            memory -= old.trajectory.getMemory();
+        }
+        memory += size;
+        Iterator<Map.Entry<Object, Entry>> eldest = trajectories.entrySet().iterator();
+        while (memory > maxMemory) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            memory -= evicted.trajectory.getMemory();
+        }
+    }
+
+    /**
+     * @return number of stored trajectories
+     */
+    public synchronized int size() {
+        return trajectories.size();
+    }
+
+    /**
+     * @return bytes taken by the stored trajectories
+     */
+    public synchronized long getMemory() {
+        return memory;
+    }
+
+    public synchronized void clear() {
+        trajectories.clear();
+        memory = 0;
+    }
+
+    private static final class Entry {
+        private final Trajectory trajectory;
+        private final SolverState state;
+
+        Entry(Trajectory trajectory, SolverState state) {
+            this.trajectory = trajectory;
+            this.state = state;
+        }
+    }
+}
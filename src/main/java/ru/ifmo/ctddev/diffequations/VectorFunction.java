@@ -0,0 +1,89 @@
+package ru.ifmo.ctddev.diffequations;
+
+import java.util.Arrays;
+
+/**
+ * Right-hand side of a differential equations system that evaluates all components in one call,
+ * so subexpressions shared between components are computed once.
+ */
+public abstract class VectorFunction {
+    private static final double EPS = 1e-7;
+
+    /**
+     * Wraps component functions into a vector function.
+     *
+     * @param functions f[i](x(t), t) = dx_i/dt(x(t), t)
+     * @return vector function calling every component in turn
+     */
+    public static VectorFunction of(Function[] functions) {
+        return new FunctionArray(functions);
+    }
+
+    /**
+     * @return number of components n
+     */
+    public abstract int getDimension();
+
+    /**
+     * Calculates the derivative of every component.
+     *
+     * @param x      state, x[i] = x_i, i = 0..n-1, x[n] = t
+     * @param result output, result[i] = dx_i/dt(x, t), i = 0..n-1
+     */
+    public abstract void calculate(double[] x, double[] result);
+
+    /**
+     * Calculates the Jacobian matrix by the state with forward differences.
+     * Override it when the derivatives are known.
+     *
+     * @param x      state, x[i] = x_i, i = 0..n-1, x[n] = t
+     * @param result output, result[i][j] = d(dx_i/dt)/dx_j, i, j = 0..n-1
+     * @return number of evaluations of the right-hand side made, counted in the solver statistics
+     */
+    public int jacobian(double[] x, double[][] result) {
+        int n = getDimension();
+        double[] xn = Arrays.copyOf(x, x.length);
+        double[] y = new double[n];
+        double[] yn = new double[n];
+        calculate(x, y);
+        for (int j = 0; j < n; j++) {
+            xn[j] += EPS * Math.max(1, Math.abs(x[j]));
+            double h = xn[j] - x[j];
+            calculate(xn, yn);
+            for (int i = 0; i < n; i++) {
+                result[i][j] = (yn[i] - y[i]) / h;
+            }
+            xn[j] = x[j];
+        }
+        return n + 1;
+    }
+
+    private static class FunctionArray extends VectorFunction {
+        private final Function[] functions;
+
+        FunctionArray(Function[] functions) {
+            this.functions = functions;
+        }
+
+        @Override
+        public int getDimension() {
+            return functions.length;
+        }
+
+        @Override
+        public void calculate(double[] x, double[] result) {
+            for (int i = 0; i < functions.length; i++) {
+                result[i] = functions[i].calculate(x);
+            }
+        }
+
+        @Override
+        public int jacobian(double[] x, double[][] result) {
+            for (int i = 0; i < functions.length; i++) {
+                System.arraycopy(functions[i].totalDerivative(x), 0, result[i], 0, functions.length);
+            }
+            /** every component is differentiated by all n + 1 arguments including the time **/
+            return functions.length + 2;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.ifmo.ctddev.diffequations.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.ctddev.diffequations.BatchIntegrator;
+import ru.ifmo.ctddev.diffequations.BatchLorenzSystem;
+import ru.ifmo.ctddev.diffequations.BatchVectorFunction;
+import ru.ifmo.ctddev.diffequations.DifferentialEquationSystem;
+import ru.ifmo.ctddev.diffequations.LorenzSystem;
+import ru.ifmo.ctddev.diffequations.SolverStatistics;
+
+public class BatchIntegratorTest {
+    private static final int MEMBERS = 37;
+
+    @Test
+    public void lockstepMatchesSeparateSolves() {
+        double[] sigma = new double[MEMBERS], r = new double[MEMBERS], b = new double[MEMBERS];
+        for (int m = 0; m < MEMBERS; m++) {
+            sigma[m] = 10;
+            r[m] = 20 + m;
+            b[m] = 8.0 / 3;
+        }
+        DifferentialEquationSystem.Method[] methods = {
+                DifferentialEquationSystem.Method.ExplicitEuler,
+                DifferentialEquationSystem.Method.ExplicitRungeKutta,
+        };
+        for (DifferentialEquationSystem.Method method : methods) {
+            double[][] x = new double[3][MEMBERS];
+            for (int m = 0; m < MEMBERS; m++) {
+                x[0][m] = 1 + 0.1 * m;
+                x[1][m] = 2;
+                x[2][m] = 2;
+            }
+            SolverStatistics statistics = new BatchIntegrator(new BatchLorenzSystem(sigma, r, b), MEMBERS)
+                    .solve(method, x, 0, 0.005, 500, null);
+            Assert.assertEquals(500L * MEMBERS, statistics.getAcceptedSteps());
+            for (int m = 0; m < MEMBERS; m++) {
+                DifferentialEquationSystem system = new DifferentialEquationSystem(new LorenzSystem(sigma[m], r[m], b[m]));
+                double[][] expected = system.solve(method, new double[]{1 + 0.1 * m, 2, 2, 0}, 0.005, 500);
+                for (int i = 0; i < 3; i++) {
+                    Assert.assertEquals(method + " member " + m, expected[499][i], x[i][m], 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void wrappedVectorFunction() {
+        double[][] x = {{1, 2}, {2, 3}, {2, 4}};
+        double[][] y = {{1, 2}, {2, 3}, {2, 4}};
+        double[] sigma = {10, 10}, r = {28, 28}, b = {8.0 / 3, 8.0 / 3};
+        new BatchIntegrator(new BatchLorenzSystem(sigma, r, b), 2)
+                .solve(DifferentialEquationSystem.Method.ExplicitRungeKutta, x, 0, 0.01, 100, null);
+        new BatchIntegrator(BatchVectorFunction.of(new LorenzSystem(10, 28, 8.0 / 3), 2), 2)
+                .solve(DifferentialEquationSystem.Method.ExplicitRungeKutta, y, 0, 0.01, 100, null);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertArrayEquals(x[i], y[i], 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherMemberCount() {
+        double[] sigma = {10, 10}, r = {28, 28}, b = {8.0 / 3, 8.0 / 3};
+        new BatchIntegrator(new BatchLorenzSystem(sigma, r, b), 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRaggedStates() {
+        double[][] x = {{1, 2}, {2, 3}, {2}};
+        new BatchIntegrator(BatchVectorFunction.of(new LorenzSystem(10, 28, 8.0 / 3), 2), 2)
+                .solve(DifferentialEquationSystem.Method.ExplicitEuler, x, 0, 0.01, 10, null);
+    }
+}
@@ -0,0 +1,101 @@
+package ru.ifmo.ctddev.diffequations.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.ctddev.diffequations.Checkpointer;
+import ru.ifmo.ctddev.diffequations.DifferentialEquationSystem;
+import ru.ifmo.ctddev.diffequations.LastStateObserver;
+import ru.ifmo.ctddev.diffequations.SolverState;
+import ru.ifmo.ctddev.diffequations.StepObserver;
+import ru.ifmo.ctddev.diffequations.Trajectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class CheckpointerTest {
+
+    @Test
+    public void restartFromCheckpoint() throws IOException {
+        DifferentialEquationSystem robertson = new DifferentialEquationSystem(TestFunctions.robertson());
+        double[] x0 = new double[]{1, 0, 0, 0};
+        for (DifferentialEquationSystem.Method method : new DifferentialEquationSystem.Method[]{
+                DifferentialEquationSystem.Method.ExplicitAdamsBashfort, DifferentialEquationSystem.Method.BDF,
+                DifferentialEquationSystem.Method.ROS3, DifferentialEquationSystem.Method.Auto}) {
+            double dt = method == DifferentialEquationSystem.Method.ExplicitAdamsBashfort ? 1e-5 : 0.1;
+            Trajectory expected = new Trajectory(3);
+            robertson.solveResumable(method, x0, dt, 300, expected);
+
+            File file = File.createTempFile("checkpoint", ".bin");
+            try {
+                Checkpointer checkpointer = new Checkpointer(file.toPath(), 50);
+                try {
+                    robertson.solveResumable(method, x0, dt, 300, new StepObserver() {
+                        private int steps = 0;
+
+                        @Override
+                        public void step(double[] x) {
+                            if (++steps == 120) {
+                                throw new IllegalStateException("Crash");
+                            }
+                        }
+                    }, checkpointer);
+                    Assert.fail("Solve did not crash");
+                } catch (IllegalStateException e) {
+                    checkpointer.close();
+                }
+                Assert.assertTrue(checkpointer.getWritten() >= 1);
+
+                SolverState saved = Checkpointer.read(file.toPath());
+                Assert.assertEquals(100, saved.getSteps());
+                Assert.assertEquals(method, saved.getMethod());
+                Trajectory rest = new Trajectory(3);
+                Checkpointer finish = new Checkpointer(file.toPath(), 50);
+                SolverState end = robertson.resume(file.toPath(), 200, rest, finish);
+                finish.close();
+                Assert.assertEquals(200, rest.size());
+                for (long k = 0; k < 200; k++) {
+                    for (int i = 0; i <= 3; i++) {
+                        Assert.assertEquals(method + " at " + k, expected.get(k + 100, i), rest.get(k, i), 0);
+                    }
+                }
+                SolverState last = Checkpointer.read(file.toPath());
+                Assert.assertEquals(300, last.getSteps());
+                Assert.assertArrayEquals(end.getState(), last.getState(), 0);
+            } finally {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    @Test
+    public void closedCheckpointerFailsBeforeSolving() throws IOException {
+        File file = File.createTempFile("checkpoint", ".bin");
+        try {
+            Checkpointer checkpointer = new Checkpointer(file.toPath(), 50);
+            checkpointer.close();
+            LastStateObserver last = new LastStateObserver();
+            try {
+                new DifferentialEquationSystem(TestFunctions.robertson()).solveResumable(
+                        DifferentialEquationSystem.Method.BDF, new double[]{1, 0, 0, 0}, 0.1, 300, last, checkpointer);
+                Assert.fail("Closed checkpointer accepted");
+            } catch (IllegalStateException e) {
+                Assert.assertNull(last.getState());
+            }
+            Assert.assertEquals(0, checkpointer.getWritten());
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file = File.createTempFile("checkpoint", ".bin");
+        try {
+            Files.write(file.toPath(), new byte[100]);
+            Checkpointer.read(file.toPath());
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+}
@@ -1,11 +1,32 @@
 package ru.ifmo.ctddev.diffequations.test;
 
+import org.junit.Assert;
 import org.junit.Test;
+import ru.ifmo.ctddev.diffequations.AdaptiveSolution;
+import ru.ifmo.ctddev.diffequations.ArrayObserver;
+import ru.ifmo.ctddev.diffequations.CancellableObserver;
+import ru.ifmo.ctddev.diffequations.ChunkedObserver;
+import ru.ifmo.ctddev.diffequations.DecimatingObserver;
 import ru.ifmo.ctddev.diffequations.DifferentialEquationSystem;
 import ru.ifmo.ctddev.diffequations.Function;
+import ru.ifmo.ctddev.diffequations.LastStateObserver;
+import ru.ifmo.ctddev.diffequations.LorenzSystem;
+import ru.ifmo.ctddev.diffequations.LttbObserver;
+import ru.ifmo.ctddev.diffequations.MinMaxObserver;
 import ru.ifmo.ctddev.diffequations.RandomHolder;
+import ru.ifmo.ctddev.diffequations.SolverState;
+import ru.ifmo.ctddev.diffequations.SolverStatistics;
+import ru.ifmo.ctddev.diffequations.StepObserver;
+import ru.ifmo.ctddev.diffequations.Trajectory;
+import ru.ifmo.ctddev.diffequations.VectorFunction;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
 
 public class DifferentialEquationsTest {
 
@@ -41,6 +62,424 @@ public class DifferentialEquationsTest {
         //double[][] v = checkRBSigma(0.5, 10, 8.0/3.0, 0.5, 10000);
     }
 
+    @Test
+    public void vectorFunctionMatchesFunctions() {
+        final double r = 24, b = 8.0 / 3.0, sigma = 10;
+        Function[] functions = new Function[3];
+        functions[0] = new Function() {
+            @Override
+            public double calculate(double[] x) {
+                return sigma * (x[1] - x[0]);
+            }
+        };
+        functions[1] = new Function() {
+            @Override
+            public double calculate(double[] x) {
+                return -x[0] * x[2] + r * x[0] - x[1];
+            }
+        };
+        functions[2] = new Function() {
+            @Override
+            public double calculate(double[] x) {
+                return x[0] * x[1] - b * x[2];
+            }
+        };
+        VectorFunction lorenz = new VectorFunction() {
+            @Override
+            public int getDimension() {
+                return 3;
+            }
+
+            @Override
+            public void calculate(double[] x, double[] result) {
+                result[0] = sigma * (x[1] - x[0]);
+                result[1] = -x[0] * x[2] + r * x[0] - x[1];
+                result[2] = x[0] * x[1] - b * x[2];
+            }
+        };
+        double[] x0 = new double[]{2, 2, 2, 0};
+        for (DifferentialEquationSystem.Method method : DifferentialEquationSystem.Method.values()) {
+            double[][] expected = new DifferentialEquationSystem(functions).solve(method, x0, 1e-3, 100);
+            double[][] actual = new DifferentialEquationSystem(lorenz).solve(method, x0, 1e-3, 100);
+            /** BDF stops Newton iterations early, so the different difference Jacobians show in the last digits **/
+            double delta = method == DifferentialEquationSystem.Method.BDF ? 1e-12 : 0;
+            /** Rosenbrock methods use the Jacobian in the step itself **/
+            if (method == DifferentialEquationSystem.Method.ROS2 || method == DifferentialEquationSystem.Method.ROS3) {
+                delta = 1e-10;
+            }
+            for (int i = 0; i < expected.length; i++) {
+                Assert.assertArrayEquals(method.toString(), expected[i], actual[i], delta);
+            }
+        }
+    }
+
+    @Test
+    public void adamsMethodsOnOscillator() {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.oscillator());
+        double[] x0 = new double[]{0, 1, 0};
+        DifferentialEquationSystem.Method[] methods = new DifferentialEquationSystem.Method[]{
+                DifferentialEquationSystem.Method.ExplicitAdamsBashfort,
+                DifferentialEquationSystem.Method.AdamsBashforthMoulton};
+        for (DifferentialEquationSystem.Method method : methods) {
+            double[][] answer = system.solve(method, x0, 0.001, 3141);
+            Assert.assertEquals(method.toString(), Math.sin(3.141), answer[3140][0], 1e-9);
+            Assert.assertEquals(method.toString(), Math.cos(3.141), answer[3140][1], 1e-9);
+        }
+    }
+
+    @Test
+    public void dormandPrinceOnOscillator() {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.oscillator());
+        double[] x0 = new double[]{0, 1, 0};
+        AdaptiveSolution solution = system.solveAdaptive(DifferentialEquationSystem.Method.DormandPrince,
+                x0, 10, 1e-10, 1e-10);
+        double[][] states = solution.getStates();
+        double[] last = states[states.length - 1];
+        Assert.assertEquals(10, last[2], 0);
+        Assert.assertEquals(Math.sin(10), last[0], 1e-8);
+        Assert.assertEquals(Math.cos(10), last[1], 1e-8);
+        Assert.assertEquals(states.length, solution.getStatistics().getAcceptedSteps());
+        Assert.assertTrue(solution.getStatistics().getEvaluations() < 10000);
+
+        double[][] answer = system.solve(DifferentialEquationSystem.Method.DormandPrince, x0, 0.001, 3141);
+        Assert.assertEquals(Math.sin(1.5), answer[1499][0], 1e-7);
+        Assert.assertEquals(Math.sin(3.141), answer[3140][0], 1e-7);
+        Assert.assertEquals(Math.cos(3.141), answer[3140][1], 1e-7);
+    }
+
+    @Test
+    public void bdfOnStiffRobertson() {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.robertson());
+        double[] x0 = new double[]{1, 0, 0, 0};
+        AdaptiveSolution solution = system.solveAdaptive(DifferentialEquationSystem.Method.BDF, x0, 40, 1e-10, 1e-7);
+        double[][] states = solution.getStates();
+        double[] last = states[states.length - 1];
+        Assert.assertEquals(40, last[3], 0);
+        Assert.assertEquals(0.7158270687193, last[0], 1e-5);
+        Assert.assertEquals(9.185534764529e-6, last[1], 1e-9);
+        Assert.assertEquals(0.2841637457587, last[2], 1e-5);
+        Assert.assertTrue(solution.getStatistics().getAcceptedSteps() < 1000);
+        Assert.assertTrue(solution.getStatistics().getFactorizations() < solution.getStatistics().getAcceptedSteps());
+
+        double[][] answer = system.solve(DifferentialEquationSystem.Method.BDF, x0, 0.5, 80);
+        Assert.assertEquals(0.7158270687193, answer[79][0], 1e-5);
+        for (double[] state : answer) {
+            Assert.assertEquals(1, state[0] + state[1] + state[2], 1e-6);
+        }
+    }
+
+    @Test
+    public void bdfOnOscillator() {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.oscillator());
+        double[][] answer = system.solve(DifferentialEquationSystem.Method.BDF, new double[]{0, 1, 0}, 0.01, 1000);
+        for (int k = 0; k < answer.length; k++) {
+            Assert.assertEquals(Math.sin(0.01 * (k + 1)), answer[k][0], 1e-6);
+        }
+    }
+
+    @Test
+    public void rosenbrockOnStiffRobertson() {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.robertson());
+        double[] x0 = new double[]{1, 0, 0, 0};
+        for (DifferentialEquationSystem.Method method : new DifferentialEquationSystem.Method[]{
+                DifferentialEquationSystem.Method.ROS2, DifferentialEquationSystem.Method.ROS3}) {
+            AdaptiveSolution solution = system.solveAdaptive(method, x0, 40, 1e-10, 1e-6);
+            double[][] states = solution.getStates();
+            double[] last = states[states.length - 1];
+            Assert.assertEquals(40, last[3], 0);
+            Assert.assertEquals(method.toString(), 0.7158270687193, last[0], 1e-4);
+            Assert.assertEquals(method.toString(), 0.2841637457587, last[2], 1e-4);
+            SolverStatistics statistics = solution.getStatistics();
+            /** one Jacobian per accepted step and one factorization per attempt **/
+            Assert.assertEquals(statistics.getAcceptedSteps(), statistics.getJacobianEvaluations());
+            Assert.assertEquals(statistics.getAcceptedSteps() + statistics.getRejectedSteps(), statistics.getFactorizations());
+        }
+    }
+
+    @Test
+    public void rosenbrockOnOscillator() {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.oscillator());
+        double[][] answer = system.solve(DifferentialEquationSystem.Method.ROS3, new double[]{0, 1, 0}, 0.01, 1000);
+        for (int k = 0; k < answer.length; k++) {
+            Assert.assertEquals(Math.sin(0.01 * (k + 1)), answer[k][0], 1e-5);
+        }
+    }
+
+    @Test
+    public void autoSwitchesToImplicitOnStiffRobertson() {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.robertson());
+        double[] x0 = new double[]{1, 0, 0, 0};
+        AdaptiveSolution solution = system.solveAdaptive(DifferentialEquationSystem.Method.Auto, x0, 40, 1e-8, 1e-6);
+        double[][] states = solution.getStates();
+        double[] last = states[states.length - 1];
+        Assert.assertEquals(0.7158270687193, last[0], 1e-5);
+        Assert.assertEquals(0.2841637457587, last[2], 1e-5);
+        SolverStatistics statistics = solution.getStatistics();
+        Assert.assertTrue(statistics.getMethodSwitches() >= 1);
+        Assert.assertTrue(statistics.getSwitchTimes()[0] < 1);
+        Assert.assertTrue(statistics.getStiffSteps() > statistics.getAcceptedSteps() / 2);
+        Assert.assertTrue(statistics.getAcceptedSteps() < 1000);
+    }
+
+    @Test
+    public void autoStaysExplicitOnOscillator() {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.oscillator());
+        double[] x0 = new double[]{0, 1, 0};
+        LastStateObserver auto = new LastStateObserver();
+        SolverStatistics statistics = system.solve(DifferentialEquationSystem.Method.Auto, x0, 0.01, 1000, auto);
+        Assert.assertEquals(0, statistics.getMethodSwitches());
+        Assert.assertEquals(0, statistics.getStiffSteps());
+        Assert.assertEquals(0, statistics.getJacobianEvaluations());
+        LastStateObserver dormandPrince = new LastStateObserver();
+        system.solve(DifferentialEquationSystem.Method.DormandPrince, x0, 0.01, 1000, dormandPrince);
+        Assert.assertArrayEquals(dormandPrince.getState(), auto.getState(), 0);
+    }
+
+    @Test
+    public void observersSeeSolveStates() {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.oscillator());
+        double[] x0 = new double[]{0, 1, 0};
+        for (DifferentialEquationSystem.Method method : DifferentialEquationSystem.Method.values()) {
+            double[][] expected = system.solve(method, x0, 0.01, 100);
+            LastStateObserver last = new LastStateObserver();
+            SolverStatistics statistics = system.solve(method, x0, 0.01, 100, last);
+            Assert.assertEquals(100, last.getSteps());
+            Assert.assertEquals(1, last.getState()[2], 1e-12);
+            Assert.assertArrayEquals(method.toString(), expected[99], new double[]{last.getState()[0], last.getState()[1]}, 0);
+            Assert.assertTrue(statistics.getEvaluations() > 0);
+
+            Trajectory trajectory = system.solveTrajectory(method, x0, 0.01, 100);
+            Assert.assertEquals(100, trajectory.size());
+            Assert.assertEquals(expected[99][0], trajectory.get(99, 0), 0);
+            Assert.assertEquals(last.getState()[2], trajectory.time(99), 0);
+
+            ArrayObserver sampled = new ArrayObserver(2);
+            system.solve(method, x0, 0.01, 100, new DecimatingObserver(30, sampled));
+            double[][] rows = sampled.getResult();
+            Assert.assertEquals(4, rows.length);
+            for (int i = 0; i < rows.length; i++) {
+                Assert.assertArrayEquals(method.toString(), expected[30 * i], rows[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void chunksGrowAndKeepEveryState() {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.oscillator());
+        double[] x0 = new double[]{0, 1, 0};
+        double[][] expected = system.solve(DifferentialEquationSystem.Method.ExplicitRungeKutta, x0, 0.01, 1000);
+        final List<double[][]> chunks = new ArrayList<>();
+        ChunkedObserver observer = new ChunkedObserver(16, 100, new ChunkedObserver.Sink() {
+            @Override
+            public void chunk(double[][] states) {
+                chunks.add(states);
+            }
+        });
+        system.solve(DifferentialEquationSystem.Method.ExplicitRungeKutta, x0, 0.01, 1000, observer);
+        observer.flush();
+        int[] sizes = {16, 32, 64, 100};
+        int k = 0;
+        for (int c = 0; c < chunks.size(); c++) {
+            double[][] chunk = chunks.get(c);
+            if (c < chunks.size() - 1) {
+                Assert.assertEquals(sizes[Math.min(c, sizes.length - 1)], chunk.length);
+            }
+            for (double[] state : chunk) {
+                Assert.assertArrayEquals(expected[k++], new double[]{state[0], state[1]}, 0);
+            }
+        }
+        Assert.assertEquals(1000, k);
+    }
+
+    @Test
+    public void lttbKeepsBudgetAndSpikes() {
+        ArrayObserver result = new ArrayObserver(2);
+        LttbObserver lttb = new LttbObserver(1, new int[]{0, 1}, 10000, 100, result);
+        feedSpikedSeries(lttb, 10000);
+        double[][] rows = result.getResult();
+        Assert.assertEquals(100, rows.length);
+        Assert.assertEquals(0, rows[0][1], 0);
+        Assert.assertEquals(9999, rows[99][1], 0);
+        boolean spike = false;
+        for (int k = 0; k < rows.length; k++) {
+            spike |= rows[k][0] == 100;
+            if (k > 0) {
+                Assert.assertTrue(rows[k][1] > rows[k - 1][1]);
+            }
+        }
+        Assert.assertTrue(spike);
+
+        /** a stopped solve still ends with its last state **/
+        ArrayObserver stopped = new ArrayObserver(2);
+        lttb = new LttbObserver(1, new int[]{0, 1}, 10000, 100, stopped);
+        feedSpikedSeries(lttb, 5000);
+        lttb.flush();
+        rows = stopped.getResult();
+        Assert.assertTrue(rows.length <= 100);
+        Assert.assertEquals(4999, rows[rows.length - 1][1], 0);
+    }
+
+    @Test
+    public void decimatedSolveDoesNotStoreSteps() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.oscillator());
+        int steps = 2000000;
+        ArrayObserver result = new ArrayObserver(3);
+        long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+        system.solve(DifferentialEquationSystem.Method.ExplicitEuler, new double[]{0, 1, 0}, 1e-5, steps,
+                new LttbObserver(2, steps, 1000, result));
+        long allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        Assert.assertEquals(1000, result.getResult().length);
+        /** storing the states would take 24 bytes per step, 48 MB **/
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < 4000000);
+    }
+
+    @Test
+    public void decimationRejectsNoComponents() {
+        try {
+            new LttbObserver(1, new int[0], 10000, 100, new ArrayObserver(2));
+            Assert.fail("Accepted no components");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("At least one component must be watched", e.getMessage());
+        }
+    }
+
+    @Test
+    public void minMaxKeepsExtremesOfEveryBucket() {
+        ArrayObserver result = new ArrayObserver(2);
+        feedSpikedSeries(new MinMaxObserver(1, 10000, 100, result), 10000);
+        double[][] rows = result.getResult();
+        Assert.assertTrue(rows.length <= 100);
+        double max = Double.NEGATIVE_INFINITY, min = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < rows.length; k++) {
+            max = Math.max(max, rows[k][0]);
+            min = Math.min(min, rows[k][0]);
+            if (k > 0) {
+                Assert.assertTrue(rows[k][1] > rows[k - 1][1]);
+            }
+        }
+        Assert.assertEquals(100, max, 0);
+        Assert.assertEquals(-1, min, 1e-6);
+    }
+
+    /**
+     * x = sin(t / 100) with a single spike of height 100 at t = 5003, the rows are x, t.
+     */
+    private static void feedSpikedSeries(StepObserver observer, int rows) {
+        for (int k = 0; k < rows; k++) {
+            observer.step(new double[]{k == 5003 ? 100 : Math.sin(k / 100.0), k});
+        }
+    }
+
+    @Test
+    public void cancelledSolveStops() {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.oscillator());
+        final LastStateObserver last = new LastStateObserver();
+        final CancellableObserver[] observer = new CancellableObserver[1];
+        observer[0] = new CancellableObserver(new StepObserver() {
+            @Override
+            public void step(double[] x) {
+                last.step(x);
+                if (last.getSteps() == 10) {
+                    observer[0].cancel();
+                }
+            }
+        });
+        try {
+            system.solve(DifferentialEquationSystem.Method.DormandPrince, new double[]{0, 1, 0}, 0.01, 1000000, observer[0]);
+            Assert.fail("Solve was not cancelled");
+        } catch (CancellationException e) {
+            Assert.assertTrue(observer[0].isCancelled());
+            Assert.assertEquals(10, last.getSteps());
+        }
+    }
+
+    @Test
+    public void resumedSolveMatchesSingleSolve() {
+        DifferentialEquationSystem oscillator = new DifferentialEquationSystem(TestFunctions.oscillator());
+        for (DifferentialEquationSystem.Method method : DifferentialEquationSystem.Method.values()) {
+            checkResume(oscillator, method, new double[]{0, 1, 0}, 0.01);
+        }
+        DifferentialEquationSystem robertson = new DifferentialEquationSystem(TestFunctions.robertson());
+        checkResume(robertson, DifferentialEquationSystem.Method.BDF, new double[]{1, 0, 0, 0}, 0.1);
+        checkResume(robertson, DifferentialEquationSystem.Method.ROS3, new double[]{1, 0, 0, 0}, 0.1);
+        checkResume(robertson, DifferentialEquationSystem.Method.Auto, new double[]{1, 0, 0, 0}, 0.1);
+    }
+
+    /**
+     * Solves 200 steps at once and in three parts, the states must be the same.
+     */
+    private static void checkResume(DifferentialEquationSystem system, DifferentialEquationSystem.Method method,
+                                    double[] x0, double dt) {
+        int n = x0.length - 1;
+        Trajectory single = new Trajectory(n);
+        SolverState end = system.solveResumable(method, x0, dt, 200, single);
+        Assert.assertEquals(200, end.getSteps());
+        Assert.assertArrayEquals(method.toString(), new double[]{single.get(199, 0), single.time(199)},
+                new double[]{end.getState()[0], end.getTime()}, 0);
+
+        Trajectory parts = new Trajectory(n);
+        SolverState state = system.solveResumable(method, x0, dt, 37, parts);
+        state = system.resume(state, 100, parts);
+        SolverState again = system.resume(state, 63, parts);
+        Assert.assertEquals(200, parts.size());
+        for (long k = 0; k < 200; k++) {
+            for (int i = 0; i <= n; i++) {
+                Assert.assertEquals(method + " at " + k, single.get(k, i), parts.get(k, i), 0);
+            }
+        }
+        /** a state stays valid after it was continued **/
+        LastStateObserver last = new LastStateObserver();
+        system.resume(state, 63, last);
+        Assert.assertArrayEquals(method.toString(), again.getState(), last.getState(), 0);
+
+        /** methods without error control take the same steps in an ordinary solve **/
+        if (EnumSet.range(DifferentialEquationSystem.Method.ExplicitEuler,
+                DifferentialEquationSystem.Method.AdamsBashforthMoulton).contains(method)) {
+            Trajectory plain = system.solveTrajectory(method, x0, dt, 200);
+            Assert.assertEquals(method.toString(), plain.get(199, 0), single.get(199, 0), 0);
+        }
+    }
+
+    @Test
+    public void implicitEulerReusesFactorization() {
+        VectorFunction stiff = new VectorFunction() {
+            @Override
+            public int getDimension() {
+                return 1;
+            }
+
+            @Override
+            public void calculate(double[] x, double[] result) {
+                result[0] = -1000 * (x[0] - Math.cos(x[1]));
+            }
+        };
+        LastStateObserver last = new LastStateObserver();
+        SolverStatistics statistics = new DifferentialEquationSystem(stiff).solve(
+                DifferentialEquationSystem.Method.ImplicitEuler, new double[]{0, 0}, 0.01, 1000, last);
+        Assert.assertEquals(Math.cos(10), last.getState()[0], 1e-3);
+        Assert.assertEquals(1, statistics.getJacobianEvaluations());
+        Assert.assertEquals(1, statistics.getFactorizations());
+        Assert.assertEquals(statistics.getNewtonIterations() + 2, statistics.getEvaluations());
+    }
+
+    @Test
+    public void numericJacobiansCountEvaluations() {
+        AdaptiveSolution solution = new DifferentialEquationSystem(TestFunctions.robertson()).solveAdaptive(
+                DifferentialEquationSystem.Method.BDF, new double[]{1, 0, 0, 0}, 40, 1e-10, 1e-7);
+        SolverStatistics statistics = solution.getStatistics();
+        Assert.assertTrue(statistics.getJacobianEvaluations() > 1);
+        /** one evaluation to start, one for the initial step, one per Newton iteration and n + 1 per Jacobian **/
+        Assert.assertEquals(2 + statistics.getNewtonIterations() + 4 * statistics.getJacobianEvaluations(),
+                statistics.getEvaluations());
+
+        Assert.assertEquals(0, new LorenzSystem(10, 28, 8.0 / 3.0).jacobian(new double[4], new double[3][3]));
+    }
+
     public void checkRBSigma(final double r, final double b, final double sigma, double dt, int iterations) {
         Random random = RandomHolder.random;
         double[] x0 = new double[]{random.nextDouble(), random.nextDouble(), random.nextDouble(), 0};
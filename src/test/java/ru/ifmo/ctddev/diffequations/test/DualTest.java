@@ -0,0 +1,84 @@
+package ru.ifmo.ctddev.diffequations.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.ctddev.diffequations.Dual;
+import ru.ifmo.ctddev.diffequations.DualFunction;
+import ru.ifmo.ctddev.diffequations.DualVectorFunction;
+import ru.ifmo.ctddev.diffequations.EquationSystem;
+import ru.ifmo.ctddev.diffequations.Function;
+
+public class DualTest {
+
+    @Test
+    public void exactGradient() {
+        DualFunction f = new DualFunction() {
+            @Override
+            public Dual calculate(Dual[] x) {
+                return x[0].multiply(x[1]).sin().add(x[0].exp().divide(x[1])).subtract(x[1].pow(3));
+            }
+        };
+        double[] x = new double[]{0.3, 1.7};
+        double[] gradient = new double[2];
+        double value = f.calculate(x, gradient);
+        Assert.assertEquals(Math.sin(0.3 * 1.7) + Math.exp(0.3) / 1.7 - Math.pow(1.7, 3), value, 1e-14);
+        Assert.assertEquals(value, f.calculate(x), 0);
+        Assert.assertEquals(1.7 * Math.cos(0.51) + Math.exp(0.3) / 1.7, gradient[0], 1e-14);
+        Assert.assertEquals(0.3 * Math.cos(0.51) - Math.exp(0.3) / (1.7 * 1.7) - 3 * 1.7 * 1.7, gradient[1], 1e-13);
+        Assert.assertArrayEquals(gradient, f.totalDerivative(x), 0);
+    }
+
+    @Test
+    public void lorenzJacobian() {
+        final double r = 24, b = 8.0 / 3.0, sigma = 10;
+        DualVectorFunction lorenz = new DualVectorFunction() {
+            @Override
+            public int getDimension() {
+                return 3;
+            }
+
+            @Override
+            public void calculate(double[] x, double[] result) {
+                result[0] = sigma * (x[1] - x[0]);
+                result[1] = -x[0] * x[2] + r * x[0] - x[1];
+                result[2] = x[0] * x[1] - b * x[2];
+            }
+
+            @Override
+            public void calculate(Dual[] x, Dual[] result) {
+                result[0] = x[1].subtract(x[0]).multiply(sigma);
+                result[1] = x[0].multiply(x[2]).negate().add(x[0].multiply(r)).subtract(x[1]);
+                result[2] = x[0].multiply(x[1]).subtract(x[2].multiply(b));
+            }
+        };
+        double[] x = new double[]{1, 2, 3, 0};
+        double[][] jacobian = new double[3][3];
+        lorenz.jacobian(x, jacobian);
+        Assert.assertArrayEquals(new double[]{-sigma, sigma, 0}, jacobian[0], 0);
+        Assert.assertArrayEquals(new double[]{r - x[2], -1, -x[0]}, jacobian[1], 0);
+        Assert.assertArrayEquals(new double[]{x[1], x[0], -b}, jacobian[2], 0);
+        double[] value = new double[3];
+        lorenz.calculate(x, value);
+        Assert.assertArrayEquals(new double[]{10, 19, 2 - 8}, value, 0);
+    }
+
+    @Test
+    public void newtonWithExactDerivatives() {
+        Function[] equations = new Function[2];
+        equations[0] = new DualFunction() {
+            @Override
+            public Dual calculate(Dual[] x) {
+                return x[0].multiply(x[0]).add(x[1].multiply(x[1])).subtract(4);
+            }
+        };
+        equations[1] = new DualFunction() {
+            @Override
+            public Dual calculate(Dual[] x) {
+                return x[0].subtract(x[1]);
+            }
+        };
+        double[] root = new EquationSystem(equations).universalMethod(new double[]{1, 2}, 1e-12, 100);
+        Assert.assertEquals(Math.sqrt(2), root[0], 1e-10);
+        Assert.assertEquals(Math.sqrt(2), root[1], 1e-10);
+    }
+}
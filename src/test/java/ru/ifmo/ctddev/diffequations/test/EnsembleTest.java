@@ -0,0 +1,77 @@
+package ru.ifmo.ctddev.diffequations.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.ctddev.diffequations.DifferentialEquationSystem;
+import ru.ifmo.ctddev.diffequations.Ensemble;
+import ru.ifmo.ctddev.diffequations.LorenzSystem;
+import ru.ifmo.ctddev.diffequations.SolverStatistics;
+import ru.ifmo.ctddev.diffequations.StepObserver;
+import ru.ifmo.ctddev.diffequations.Trajectory;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class EnsembleTest {
+    private static final int MEMBERS = 64;
+
+    private static double[][] initialStates() {
+        double[][] x0 = new double[MEMBERS][];
+        for (int m = 0; m < MEMBERS; m++) {
+            x0[m] = new double[]{1 + m * 0.01, 2, 2, 0};
+        }
+        return x0;
+    }
+
+    private static double[][] parameters() {
+        double[][] parameters = new double[MEMBERS][];
+        for (int m = 0; m < MEMBERS; m++) {
+            parameters[m] = new double[]{10, 20 + m % 8, 8.0 / 3};
+        }
+        return parameters;
+    }
+
+    @Test
+    public void matchesSequentialSolves() {
+        double[][] x0 = initialStates();
+        double[][] parameters = parameters();
+        DifferentialEquationSystem.Method[] methods = {
+                DifferentialEquationSystem.Method.ExplicitRungeKutta,
+                DifferentialEquationSystem.Method.ImplicitEuler,
+                DifferentialEquationSystem.Method.DormandPrince,
+        };
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (DifferentialEquationSystem.Method method : methods) {
+                double[][] result = new Ensemble(new LorenzSystem(0, 0, 0), pool).solveFinal(method, x0, parameters, 0.01, 300);
+                for (int m = 0; m < MEMBERS; m++) {
+                    LorenzSystem lorenz = new LorenzSystem(parameters[m][0], parameters[m][1], parameters[m][2]);
+                    Trajectory expected = new DifferentialEquationSystem(lorenz).solveTrajectory(method, x0[m], 0.01, 300);
+                    double[] last = new double[4];
+                    expected.copyRow(expected.size() - 1, last);
+                    Assert.assertArrayEquals(method + " member " + m, last, result[m], 0);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void everyMemberHasItsObserver() {
+        final Trajectory[] trajectories = new Trajectory[MEMBERS];
+        SolverStatistics statistics = new Ensemble(new LorenzSystem(10, 28, 8.0 / 3)).solve(
+                DifferentialEquationSystem.Method.ExplicitRungeKutta, initialStates(), null, 0.01, 100,
+                new Ensemble.ObserverFactory() {
+                    @Override
+                    public StepObserver create(int member) {
+                        return trajectories[member] = new Trajectory(3, 100);
+                    }
+                });
+        for (Trajectory trajectory : trajectories) {
+            Assert.assertEquals(100, trajectory.size());
+            Assert.assertEquals(1.0, trajectory.time(99), 1e-12);
+        }
+        Assert.assertEquals(MEMBERS * 100L, statistics.getAcceptedSteps());
+        Assert.assertEquals(MEMBERS * 400L, statistics.getEvaluations());
+    }
+}
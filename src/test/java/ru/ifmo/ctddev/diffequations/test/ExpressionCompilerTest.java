@@ -0,0 +1,90 @@
+package ru.ifmo.ctddev.diffequations.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.ctddev.diffequations.DifferentialEquationSystem;
+import ru.ifmo.ctddev.diffequations.ExpressionCompiler;
+import ru.ifmo.ctddev.diffequations.Function;
+import ru.ifmo.ctddev.diffequations.LorenzSystem;
+import ru.ifmo.ctddev.diffequations.VectorFunction;
+
+import java.util.Random;
+
+public class ExpressionCompilerTest {
+
+    @Test
+    public void lorenzMatchesHandWritten() {
+        VectorFunction compiled = new ExpressionCompiler("x", "y", "z")
+                .setParameter("sigma", 10).setParameter("r", 28).setParameter("b", 8.0 / 3)
+                .compile("sigma * (y - x)", "-x * z + r * x - y", "x * y - b * z");
+        LorenzSystem lorenz = new LorenzSystem(10, 28, 8.0 / 3);
+        Assert.assertEquals(3, compiled.getDimension());
+        Random random = new Random(1);
+        double[] x = new double[4];
+        double[] expected = new double[3];
+        double[] actual = new double[3];
+        for (int k = 0; k < 100; k++) {
+            for (int i = 0; i < 4; i++) {
+                x[i] = 40 * random.nextDouble() - 20;
+            }
+            lorenz.calculate(x, expected);
+            compiled.calculate(x, actual);
+            Assert.assertArrayEquals(expected, actual, 0);
+        }
+        double[][] a = new DifferentialEquationSystem(lorenz).solve(
+                DifferentialEquationSystem.Method.ExplicitRungeKutta, new double[]{2, 2, 2, 0}, 1e-3, 1000);
+        double[][] b = new DifferentialEquationSystem(compiled).solve(
+                DifferentialEquationSystem.Method.ExplicitRungeKutta, new double[]{2, 2, 2, 0}, 1e-3, 1000);
+        Assert.assertArrayEquals(a[999], b[999], 0);
+    }
+
+    @Test
+    public void functionsAndSharedSubexpressions() {
+        Function f = new ExpressionCompiler(2).setParameter("k", 3)
+                .compileFunction("sin(x0 * x1) + exp(x1 * x0) / (1 + sin(x0 * x1)) - k^2 * t + pow(x0, 3) - -x1 + max(x0, 2 * pi)");
+        double[] x = {0.3, -1.7, 2.5};
+        double s = Math.sin(x[0] * x[1]);
+        double expected = s + Math.exp(x[1] * x[0]) / (1 + s) - 9 * x[2] + Math.pow(x[0], 3) + x[1] + Math.max(x[0], 2 * Math.PI);
+        Assert.assertEquals(expected, f.calculate(x), 1e-12);
+        Assert.assertEquals(-1e-3 * 2 + 4.5e2, new ExpressionCompiler(0).compileFunction("-1e-3 * 2 + 4.5E2").calculate(new double[1]), 0);
+    }
+
+    @Test
+    public void manySharedNodes() {
+        int n = 300;
+        String[] expressions = new String[n];
+        for (int i = 0; i < n; i++) {
+            expressions[i] = "x" + ((i + 1) % n) + " * cos(x" + i + ") - sin(x0 + x1) * " + i;
+        }
+        VectorFunction compiled = new ExpressionCompiler(n).compile(expressions);
+        double[] x = new double[n + 1];
+        for (int i = 0; i < n; i++) {
+            x[i] = i * 0.01;
+        }
+        double[] result = new double[n];
+        compiled.calculate(x, result);
+        for (int i = 0; i < n; i++) {
+            Assert.assertEquals(x[(i + 1) % n] * Math.cos(x[i]) - Math.sin(x[0] + x[1]) * i, result[i], 1e-12);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownName() {
+        new ExpressionCompiler("x").compile("x * y");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unbalanced() {
+        new ExpressionCompiler("x").compile("(x + 1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLargeForOneMethod() {
+        int n = 5000;
+        String[] expressions = new String[n];
+        for (int i = 0; i < n; i++) {
+            expressions[i] = "x" + ((i + 1) % n) + " * cos(x" + i + ") - " + i + ".5 * x" + i;
+        }
+        new ExpressionCompiler(n).compile(expressions);
+    }
+}
@@ -0,0 +1,68 @@
+package ru.ifmo.ctddev.diffequations.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.ctddev.diffequations.DifferentialEquationSystem;
+import ru.ifmo.ctddev.diffequations.MappedTrajectoryReader;
+import ru.ifmo.ctddev.diffequations.MappedTrajectoryWriter;
+import ru.ifmo.ctddev.diffequations.Trajectory;
+
+import java.io.File;
+import java.io.IOException;
+
+public class MappedTrajectoryTest {
+
+    @Test
+    public void writeAndRead() throws IOException {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(TestFunctions.oscillator());
+        double[] x0 = new double[]{0, 1, 0.5};
+        File file = File.createTempFile("trajectory", ".bin");
+        try {
+            system.solveToFile(DifferentialEquationSystem.Method.ExplicitRungeKutta, x0, 0.001, 5000, file.toPath());
+            Trajectory expected = system.solveTrajectory(DifferentialEquationSystem.Method.ExplicitRungeKutta,
+                    x0, 0.001, 5000);
+            try (MappedTrajectoryReader reader = new MappedTrajectoryReader(file.toPath())) {
+                Assert.assertEquals(2, reader.getDimension());
+                Assert.assertEquals(5000, reader.size());
+                Assert.assertEquals(0.5, reader.getT0(), 0);
+                Assert.assertEquals(0.001, reader.getDt(), 0);
+                Assert.assertEquals(DifferentialEquationSystem.Method.ExplicitRungeKutta, reader.getMethod());
+                double[] row = new double[3];
+                for (long k = 4999; k >= 0; k -= 7) {
+                    Assert.assertEquals(expected.get(k, 0), reader.get(k, 0), 0);
+                    Assert.assertEquals(expected.time(k), reader.time(k), 0);
+                    reader.copyRow(k, row);
+                    Assert.assertEquals(expected.get(k, 1), row[1], 0);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void unclosedFileKeepsItsRows() throws IOException {
+        File file = File.createTempFile("trajectory", ".bin");
+        try {
+            MappedTrajectoryWriter writer = new MappedTrajectoryWriter(file.toPath(), 1, 0, 0.5,
+                    DifferentialEquationSystem.Method.DormandPrince);
+            try {
+                for (int k = 0; k < 1000; k++) {
+                    writer.step(new double[]{k, 0.5 * k});
+                }
+                /** the file still has the whole mapped segment, as after a crash **/
+                Assert.assertTrue(file.length() > 64 + 1000 * 16);
+                try (MappedTrajectoryReader reader = new MappedTrajectoryReader(file.toPath())) {
+                    Assert.assertEquals(1000, reader.size());
+                    Assert.assertEquals(999, reader.get(999, 0), 0);
+                    Assert.assertEquals(DifferentialEquationSystem.Method.DormandPrince, reader.getMethod());
+                }
+            } finally {
+                writer.close();
+            }
+            Assert.assertEquals(64 + 1000 * 16, file.length());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ru.ifmo.ctddev.diffequations.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.ctddev.diffequations.LUDecomposition;
+import ru.ifmo.ctddev.diffequations.Matrix;
+
+public class MatrixTest {
+
+    private static double[] residual(Matrix m, double[] x, double[] b) {
+        double[] r = m.transform(x);
+        for (int i = 0; i < r.length; i++) {
+            r[i] -= b[i];
+        }
+        return r;
+    }
+
+    @Test
+    public void luSolvesLikeGauss() {
+        int n = 40;
+        Matrix m = new Matrix(n);
+        double[] b = new double[n];
+        m.randomFill(b, -10, 10);
+        double[] gauss = m.gaussMethod(b);
+        double[] lu = m.luMethod(b);
+        Assert.assertArrayEquals(gauss, lu, 1e-8);
+        for (double r : residual(m, lu, b)) {
+            Assert.assertEquals(0, r, 1e-8);
+        }
+    }
+
+    @Test
+    public void luManyAndTransposed() {
+        int n = 25;
+        Matrix m = new Matrix(n);
+        double[] b = new double[n];
+        m.diagonalDominanceFill(b, -5, 5, 1);
+        LUDecomposition decomposition = m.luDecomposition();
+        double[][] rhs = new double[3][];
+        rhs[0] = b;
+        rhs[1] = new double[n];
+        rhs[1][3] = 1;
+        rhs[2] = new double[n];
+        for (int i = 0; i < n; i++) {
+            rhs[2][i] = i;
+        }
+        double[][] x = decomposition.solve(rhs);
+        for (int k = 0; k < rhs.length; k++) {
+            for (double r : residual(m, x[k], rhs[k])) {
+                Assert.assertEquals(0, r, 1e-9);
+            }
+        }
+        double[] y = decomposition.solveTranspose(rhs[2]);
+        double[] aty = m.transposeTransform(y);
+        Assert.assertArrayEquals(rhs[2], aty, 1e-9);
+    }
+
+    @Test
+    public void luSpansSeveralPanels() {
+        int n = 150;
+        Matrix m = new Matrix(n);
+        double[] b = new double[n];
+        m.randomFill(b, -3, 3);
+        double[] x = m.luDecomposition().solve(b);
+        for (double r : residual(m, x, b)) {
+            Assert.assertEquals(0, r, 1e-8);
+        }
+    }
+
+    @Test
+    public void determinant() {
+        double[][] a = new double[][]{{0, 2, 1}, {1, 1, 0}, {3, 0, 1}};
+        Assert.assertEquals(-5, new LUDecomposition(a).determinant(), 1e-12);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void singular() {
+        new LUDecomposition(new double[][]{{1, 2}, {2, 4}});
+    }
+
+    @Test
+    public void blockedProducts() {
+        int n = 150;
+        Matrix m = new Matrix(n);
+        Matrix other = new Matrix(n);
+        double[] b = new double[n];
+        m.randomFill(b, -3, 3);
+        other.randomFill(b, -3, 3);
+        Matrix product = m.multiply(other);
+        Matrix gram = m.gram();
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = i % 7 - 3;
+        }
+        double[] mv = m.transform(v);
+        double[] mtv = m.transposeTransform(v);
+        for (int i = 0; i < n; i++) {
+            double expectedMv = 0, expectedMtv = 0;
+            for (int k = 0; k < n; k++) {
+                expectedMv += m.get(i, k) * v[k];
+                expectedMtv += m.get(k, i) * v[k];
+            }
+            Assert.assertEquals(expectedMv, mv[i], 1e-9);
+            Assert.assertEquals(expectedMtv, mtv[i], 1e-9);
+            for (int j = 0; j < n; j += 13) {
+                double expectedProduct = 0, expectedGram = 0;
+                for (int k = 0; k < n; k++) {
+                    expectedProduct += m.get(i, k) * other.get(k, j);
+                    expectedGram += m.get(k, i) * m.get(k, j);
+                }
+                Assert.assertEquals(expectedProduct, product.get(i, j), 1e-9);
+                Assert.assertEquals(expectedGram, gram.get(i, j), 1e-9);
+            }
+        }
+    }
+}
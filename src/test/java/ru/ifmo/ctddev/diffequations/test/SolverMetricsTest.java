@@ -0,0 +1,74 @@
+package ru.ifmo.ctddev.diffequations.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.ctddev.diffequations.DifferentialEquationSystem;
+import ru.ifmo.ctddev.diffequations.EquationSystem;
+import ru.ifmo.ctddev.diffequations.Function;
+import ru.ifmo.ctddev.diffequations.LastStateObserver;
+import ru.ifmo.ctddev.diffequations.LorenzSystem;
+import ru.ifmo.ctddev.diffequations.SolverMetrics;
+import ru.ifmo.ctddev.diffequations.SolverStatistics;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class SolverMetricsTest {
+
+    @Test
+    public void universalMethodCountsIterations() {
+        Function[] equations = new Function[2];
+        equations[0] = new Function() {
+            @Override
+            public double calculate(double[] x) {
+                return x[0] * x[0] + x[1] * x[1] - 4;
+            }
+        };
+        equations[1] = new Function() {
+            @Override
+            public double calculate(double[] x) {
+                return x[0] - x[1];
+            }
+        };
+        SolverStatistics statistics = new SolverStatistics();
+        double[] root = new EquationSystem(equations).universalMethod(new double[]{1, 2}, 1e-12, 100, statistics);
+        Assert.assertEquals(Math.sqrt(2), root[0], 1e-10);
+        Assert.assertTrue(statistics.getNewtonIterations() > 0);
+        Assert.assertEquals(statistics.getNewtonIterations(), statistics.getJacobianEvaluations());
+        Assert.assertEquals(statistics.getNewtonIterations(), statistics.getFactorizations());
+        Assert.assertTrue(statistics.getLineSearchEvaluations() > 3 * statistics.getNewtonIterations());
+        Assert.assertTrue(statistics.getWallNanos() >= statistics.getJacobianNanos() + statistics.getLineSearchNanos());
+    }
+
+    @Test
+    public void implicitMethodsCountNewtonIterations() {
+        DifferentialEquationSystem system = new DifferentialEquationSystem(new LorenzSystem(10, 28, 8.0 / 3.0));
+        double[] x0 = new double[]{1, 1, 1, 0};
+        SolverStatistics statistics = system.solve(DifferentialEquationSystem.Method.ImplicitEuler, x0, 1e-3, 100,
+                new LastStateObserver());
+        Assert.assertTrue(statistics.getNewtonIterations() >= 100);
+        Assert.assertEquals(statistics.getNewtonIterations(), statistics.getEvaluations());
+        statistics = system.solve(DifferentialEquationSystem.Method.ExplicitRungeKutta, x0, 1e-3, 100,
+                new LastStateObserver());
+        Assert.assertEquals(0, statistics.getNewtonIterations());
+    }
+
+    @Test
+    public void solvesAddUpInMBean() throws Exception {
+        SolverMetrics.register();
+        SolverMetrics.register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(SolverMetrics.OBJECT_NAME);
+        SolverMetrics metrics = SolverMetrics.getInstance();
+        long solves = (Long) server.getAttribute(name, "Solves");
+        long evaluations = metrics.getEvaluations();
+        DifferentialEquationSystem system = new DifferentialEquationSystem(new LorenzSystem(10, 28, 8.0 / 3.0));
+        SolverStatistics statistics = system.solve(DifferentialEquationSystem.Method.BDF, new double[]{1, 1, 1, 0},
+                1e-2, 100, new LastStateObserver());
+        Assert.assertEquals(solves + 1, (long) (Long) server.getAttribute(name, "Solves"));
+        Assert.assertEquals(evaluations + statistics.getEvaluations(), metrics.getEvaluations());
+        Assert.assertTrue(statistics.getNewtonIterations() > 0);
+        Assert.assertTrue(statistics.getFactorizationNanos() > 0);
+    }
+}
@@ -0,0 +1,132 @@
+package ru.ifmo.ctddev.diffequations.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.ctddev.diffequations.ConjugateGradients;
+import ru.ifmo.ctddev.diffequations.InconsistentInputException;
+import ru.ifmo.ctddev.diffequations.Matrix;
+import ru.ifmo.ctddev.diffequations.Preconditioner;
+import ru.ifmo.ctddev.diffequations.SparseMatrix;
+
+public class SparseMatrixTest {
+
+    /**
+     * Five-point Laplacian on a side x side grid, symmetric positive definite.
+     */
+    static SparseMatrix poisson(int side) {
+        SparseMatrix.Builder builder = new SparseMatrix.Builder(side * side);
+        for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+                int k = i * side + j;
+                builder.add(k, k, 4);
+                if (i > 0) {
+                    builder.add(k, k - side, -1);
+                }
+                if (i + 1 < side) {
+                    builder.add(k, k + side, -1);
+                }
+                if (j > 0) {
+                    builder.add(k, k - 1, -1);
+                }
+                if (j + 1 < side) {
+                    builder.add(k, k + 1, -1);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static void assertSolves(SparseMatrix a, double[] x, double[] b, double delta) {
+        double[] ax = a.transform(x);
+        for (int i = 0; i < b.length; i++) {
+            Assert.assertEquals(b[i], ax[i], delta);
+        }
+    }
+
+    @Test
+    public void matchesDense() {
+        Matrix dense = new Matrix(30);
+        double[] b = new double[30];
+        dense.diagonalDominanceFill(b, -3, 3, 1);
+        for (int i = 0; i < 30; i++) {
+            for (int j = 0; j < 30; j++) {
+                if ((i + j) % 3 == 0 && i != j) {
+                    dense.set(i, j, 0);
+                }
+            }
+        }
+        SparseMatrix sparse = SparseMatrix.of(dense);
+        Assert.assertArrayEquals(dense.transform(b), sparse.transform(b), 1e-12);
+        Assert.assertArrayEquals(dense.transposeTransform(b), sparse.transposeTransform(b), 1e-12);
+        Assert.assertEquals(dense.get(4, 7), sparse.get(4, 7), 0);
+    }
+
+    @Test
+    public void builderMergesDuplicates() {
+        SparseMatrix m = new SparseMatrix.Builder(3).add(2, 1, 1).add(0, 0, 2).add(2, 1, 3).add(2, 0, 5).build();
+        Assert.assertEquals(3, m.nonZeros());
+        Assert.assertEquals(4, m.get(2, 1), 0);
+        Assert.assertEquals(5, m.get(2, 0), 0);
+        Assert.assertEquals(0, m.get(1, 1), 0);
+    }
+
+    @Test
+    public void iterations() throws InconsistentInputException {
+        int n = 2000;
+        SparseMatrix.Builder builder = new SparseMatrix.Builder(n);
+        double[] b = new double[n];
+        for (int i = 0; i < n; i++) {
+            builder.add(i, i, 5);
+            if (i > 0) {
+                builder.add(i, i - 1, -1);
+            }
+            if (i + 1 < n) {
+                builder.add(i, i + 1, 2);
+            }
+            b[i] = i % 5;
+        }
+        SparseMatrix a = builder.build();
+        assertSolves(a, a.jacobiMethod(b, 1000, 1e-12, false, 1, true), b, 1e-9);
+        assertSolves(a, a.jacobiMethod(b, 1000, 1e-12, true, 1, true), b, 1e-9);
+        assertSolves(a, a.jacobiMethod(b, 1000, 1e-12, true, 1.1, true), b, 1e-9);
+    }
+
+    @Test
+    public void conjugateGradients() {
+        SparseMatrix a = poisson(40);
+        double[] b = new double[a.size()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = Math.sin(i);
+        }
+        double[] x = a.conjugateGradientsMethod(b, 10000, 1e-12);
+        assertSolves(a, x, b, 1e-9);
+    }
+
+    @Test
+    public void preconditioners() {
+        SparseMatrix a = poisson(40);
+        double[] b = new double[a.size()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = Math.sin(i);
+        }
+        ConjugateGradients plain = new ConjugateGradients(a);
+        plain.solve(b, new double[b.length], 10000, 1e-10);
+        Preconditioner[] preconditioners = {a.jacobiPreconditioner(), a.ssorPreconditioner(1.5), a.incompleteCholesky()};
+        for (Preconditioner preconditioner : preconditioners) {
+            ConjugateGradients solver = new ConjugateGradients(a, preconditioner);
+            double[] x = solver.solve(b, new double[b.length], 10000, 1e-10);
+            assertSolves(a, x, b, 1e-8);
+            Assert.assertTrue(solver.getResidual() <= 1e-10);
+            Assert.assertTrue(solver.getIterations() <= plain.getIterations());
+        }
+    }
+
+    @Test
+    public void normalEquations() {
+        Matrix m = new Matrix(60);
+        double[] b = new double[60];
+        m.diagonalDominanceFill(b, -5, 5, 2);
+        double[] x = m.conjugateGradientsMethod(b, 1000, 1e-12);
+        Assert.assertArrayEquals(m.luMethod(b), x, 1e-8);
+    }
+}
@@ -0,0 +1,48 @@
+package ru.ifmo.ctddev.diffequations.test;
+
+import ru.ifmo.ctddev.diffequations.VectorFunction;
+
+/**
+ * Right-hand sides shared by the tests.
+ */
+final class TestFunctions {
+    private TestFunctions() {
+    }
+
+    /**
+     * Chemical kinetics of Robertson, the classic stiff test problem.
+     */
+    static VectorFunction robertson() {
+        return new VectorFunction() {
+            @Override
+            public int getDimension() {
+                return 3;
+            }
+
+            @Override
+            public void calculate(double[] x, double[] result) {
+                result[0] = -0.04 * x[0] + 1e4 * x[1] * x[2];
+                result[1] = 0.04 * x[0] - 1e4 * x[1] * x[2] - 3e7 * x[1] * x[1];
+                result[2] = 3e7 * x[1] * x[1];
+            }
+        };
+    }
+
+    /**
+     * x'' = -x as a system of two equations.
+     */
+    static VectorFunction oscillator() {
+        return new VectorFunction() {
+            @Override
+            public int getDimension() {
+                return 2;
+            }
+
+            @Override
+            public void calculate(double[] x, double[] result) {
+                result[0] = x[1];
+                result[1] = -x[0];
+            }
+        };
+    }
+}
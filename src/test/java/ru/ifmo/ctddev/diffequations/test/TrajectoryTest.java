@@ -0,0 +1,64 @@
+package ru.ifmo.ctddev.diffequations.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.ifmo.ctddev.diffequations.Trajectory;
+import ru.ifmo.ctddev.diffequations.TrajectoryCache;
+
+public class TrajectoryTest {
+
+    @Test
+    public void rowsAndColumns() {
+        Trajectory trajectory = new Trajectory(2, 4);
+        for (int k = 0; k < 1000; k++) {
+            trajectory.step(new double[]{k, -k, 0.5 * k});
+        }
+        Assert.assertEquals(1000, trajectory.size());
+        Assert.assertEquals(-999, trajectory.get(999, 1), 0);
+        Assert.assertEquals(250, trajectory.time(500), 0);
+        Assert.assertEquals(-7, trajectory.row(7).get(1), 0);
+        Assert.assertEquals(3.5, trajectory.row(7).time(), 0);
+        Trajectory.Column column = trajectory.column(0);
+        for (long k = 0; k < column.size(); k++) {
+            Assert.assertEquals(k, column.get(k), 0);
+        }
+        double[] row = new double[3];
+        trajectory.copyRow(123, row);
+        Assert.assertArrayEquals(new double[]{123, -123, 61.5}, row, 0);
+        double[][] array = trajectory.toArray();
+        Assert.assertEquals(1000, array.length);
+        Assert.assertArrayEquals(new double[]{10, -10}, array[10], 0);
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyUsed() {
+        Trajectory a = filled(100), b = filled(100), c = filled(100);
+        long size = a.getMemory();
+        Assert.assertEquals(8 * 3 * 100, size);
+        TrajectoryCache cache = new TrajectoryCache(2 * size);
+        cache.put("a", a);
+        cache.put("b", b);
+        Assert.assertSame(a, cache.get("a"));
+        cache.put("c", c);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(2 * size, cache.getMemory());
+        Assert.assertNull(cache.get("b"));
+        Assert.assertSame(a, cache.get("a"));
+        Assert.assertSame(c, cache.get("c"));
+
+        cache.put("large", filled(1000));
+        Assert.assertNull(cache.get("large"));
+        Assert.assertEquals(2, cache.size());
+        cache.put("a", b);
+        Assert.assertSame(b, cache.get("a"));
+        Assert.assertEquals(2 * size, cache.getMemory());
+    }
+
+    private static Trajectory filled(int rows) {
+        Trajectory trajectory = new Trajectory(2, rows);
+        for (int k = 0; k < rows; k++) {
+            trajectory.step(new double[]{k, -k, 0.5 * k});
+        }
+        return trajectory;
+    }
+}